@@ -0,0 +1,315 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.google.android.exoplayer2.BaseRenderer;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.FixedTrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.util.MimeTypes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Plays a VOD HLS fixture through {@link HlsSegmentPrefetcher} over an upstream that adds a
+ * fixed latency to every request, reading segments one after another like the player does.
+ */
+public class HlsSegmentPrefetcherTest extends AndroidTestCase {
+
+    private static final String BASE = "http://fixture.test/hls/";
+    private static final Uri PLAYLIST_URI = Uri.parse(BASE + "media.m3u8");
+    private static final int SEGMENT_COUNT = 10;
+    private static final int SEGMENT_DURATION_S = 2;
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    private static final long LATENCY_MS = 150;
+    private static final long CONFIG_MAX_BUFFER_MS = 60000;
+
+    private FixtureDataSourceFactory mUpstream;
+    private UniversalLoadControl mLoadControl;
+    private HlsSegmentPrefetcher mPrefetcher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mUpstream = new FixtureDataSourceFactory(LATENCY_MS);
+        mUpstream.put(PLAYLIST_URI, playlist().getBytes("UTF-8"));
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            mUpstream.put(segmentUri(i), segment(i));
+        }
+        mLoadControl = new UniversalLoadControl(new DefaultLoadControl(), CONFIG_MAX_BUFFER_MS);
+        selectVideoTrack(mLoadControl);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mPrefetcher != null) {
+            mPrefetcher.release();
+        }
+        super.tearDown();
+    }
+
+    public void testKeepsAtMostKRequestsInFlight() throws IOException {
+        int maxInFlight = 3;
+        mPrefetcher = new HlsSegmentPrefetcher(mUpstream, maxInFlight, mLoadControl);
+        DataSource.Factory factory = mPrefetcher.buildDataSourceFactory();
+
+        readFully(factory, PLAYLIST_URI);
+        long startMs = SystemClock.elapsedRealtime();
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            assertTrue("segment " + i, Arrays.equals(segment(i), readFully(factory, segmentUri(i))));
+        }
+        long elapsedMs = SystemClock.elapsedRealtime() - startMs;
+
+        assertTrue("max in flight " + mUpstream.getMaxInFlight(), mUpstream.getMaxInFlight() <= maxInFlight);
+        assertTrue("requests never overlapped", mUpstream.getMaxInFlight() > 1);
+        // one request per segment, none of them repeated
+        assertEquals(SEGMENT_COUNT + 1, mUpstream.getRequests().size());
+        // sequential loading would pay the latency once per segment
+        assertTrue("took " + elapsedMs + "ms", elapsedMs < SEGMENT_COUNT * LATENCY_MS);
+    }
+
+    public void testReadsSegmentsBackInOrder() throws IOException {
+        mPrefetcher = new HlsSegmentPrefetcher(mUpstream, 8, mLoadControl);
+        DataSource.Factory factory = mPrefetcher.buildDataSourceFactory();
+
+        readFully(factory, PLAYLIST_URI);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            // each segment holds its own index, so a segment handed over out of order fails here
+            assertTrue("segment " + i, Arrays.equals(segment(i), readFully(factory, segmentUri(i))));
+        }
+        List<Uri> requests = mUpstream.getRequests();
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            assertEquals("requests of segment " + i, 1, Collections.frequency(requests, segmentUri(i)));
+        }
+    }
+
+    public void testStopsAtTheAheadLimit() throws IOException {
+        // the opened segment and one more fit, a third would end 6 s ahead
+        mLoadControl.setMaxBufferMs(5000);
+        mPrefetcher = new HlsSegmentPrefetcher(mUpstream, 8, mLoadControl);
+        DataSource.Factory factory = mPrefetcher.buildDataSourceFactory();
+
+        readFully(factory, PLAYLIST_URI);
+        readFully(factory, segmentUri(0));
+        SystemClock.sleep(3 * LATENCY_MS);
+
+        assertEquals(Arrays.asList(PLAYLIST_URI, segmentUri(0), segmentUri(1)), mUpstream.getRequests());
+    }
+
+    public void testLoweredLimitCancelsPrefetchesBeyondIt() throws IOException {
+        mPrefetcher = new HlsSegmentPrefetcher(mUpstream, 4, mLoadControl);
+        DataSource.Factory factory = mPrefetcher.buildDataSourceFactory();
+
+        readFully(factory, PLAYLIST_URI);
+        readFully(factory, segmentUri(0));
+        // let the prefetches of segments 1 to 3 start
+        SystemClock.sleep(LATENCY_MS / 2);
+        assertEquals(5, mUpstream.getRequests().size());
+
+        mLoadControl.setMaxBufferMs(4000);
+        mPrefetcher.onBufferLimitChanged();
+        // segment 1 is still within the limit, 2 and 3 were dropped, 2 is requested again once
+        // it fits behind segment 1
+        assertTrue(Arrays.equals(segment(1), readFully(factory, segmentUri(1))));
+        assertTrue(Arrays.equals(segment(2), readFully(factory, segmentUri(2))));
+        List<Uri> requests = mUpstream.getRequests();
+        assertEquals(1, Collections.frequency(requests, segmentUri(1)));
+        assertEquals(2, Collections.frequency(requests, segmentUri(2)));
+        assertEquals(1, Collections.frequency(requests, segmentUri(3)));
+    }
+
+    private static byte[] readFully(DataSource.Factory factory, Uri uri) throws IOException {
+        DataSource dataSource = factory.createDataSource();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            dataSource.open(new DataSpec(uri, 0, C.LENGTH_UNSET, null));
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            dataSource.close();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Gives the load control the memory budget of a player with a video track selected.
+     */
+    private static void selectVideoTrack(UniversalLoadControl loadControl) {
+        Format format = Format.createVideoSampleFormat(null, MimeTypes.VIDEO_H264, null, 1000000,
+                Format.NO_VALUE, 1280, 720, Format.NO_VALUE, null, null);
+        Renderer renderer = new BaseRenderer(C.TRACK_TYPE_VIDEO) {
+            @Override
+            public int supportsFormat(Format format) {
+                return FORMAT_HANDLED;
+            }
+
+            @Override
+            public void render(long positionUs, long elapsedRealtimeUs) {
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public boolean isEnded() {
+                return false;
+            }
+        };
+        loadControl.onTracksSelected(new Renderer[] {renderer}, TrackGroupArray.EMPTY,
+                new TrackSelectionArray(new FixedTrackSelection(new TrackGroup(format), 0)));
+    }
+
+    private static String playlist() {
+        StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n#EXT-X-TARGETDURATION:"
+                + SEGMENT_DURATION_S + "\n#EXT-X-MEDIA-SEQUENCE:0\n");
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            playlist.append("#EXTINF:").append(SEGMENT_DURATION_S).append(".0,\nsegment").append(i)
+                    .append(".ts\n");
+        }
+        return playlist.append("#EXT-X-ENDLIST\n").toString();
+    }
+
+    private static Uri segmentUri(int index) {
+        return Uri.parse(BASE + "segment" + index + ".ts");
+    }
+
+    private static byte[] segment(int index) {
+        byte[] data = new byte[SEGMENT_SIZE];
+        Arrays.fill(data, (byte) index);
+        return data;
+    }
+
+    /**
+     * Serves fixed bodies after {@code latencyMs}, recording the requests and how many are running
+     * at the same time. A request counts as running from its open until its last byte is read.
+     */
+    private static final class FixtureDataSourceFactory implements DataSource.Factory {
+
+        private final long mLatencyMs;
+        private final Map<Uri, byte[]> mBodies = new ConcurrentHashMap<>();
+        private final List<Uri> mRequests = Collections.synchronizedList(new ArrayList<Uri>());
+        private int mInFlight;
+        private int mMaxInFlight;
+
+        FixtureDataSourceFactory(long latencyMs) {
+            mLatencyMs = latencyMs;
+        }
+
+        void put(Uri uri, byte[] body) {
+            mBodies.put(uri, body);
+        }
+
+        List<Uri> getRequests() {
+            synchronized (mRequests) {
+                return new ArrayList<>(mRequests);
+            }
+        }
+
+        synchronized int getMaxInFlight() {
+            return mMaxInFlight;
+        }
+
+        private synchronized void onOpen() {
+            mInFlight++;
+            mMaxInFlight = Math.max(mMaxInFlight, mInFlight);
+        }
+
+        private synchronized void onFinished() {
+            mInFlight--;
+        }
+
+        @Override
+        public DataSource createDataSource() {
+            return new DataSource() {
+                private Uri mUri;
+                private byte[] mBody;
+                private int mPosition;
+                private boolean mRunning;
+
+                private void finish() {
+                    if (mRunning) {
+                        mRunning = false;
+                        onFinished();
+                    }
+                }
+
+                @Override
+                public long open(DataSpec dataSpec) throws IOException {
+                    mRequests.add(dataSpec.uri);
+                    onOpen();
+                    mRunning = true;
+                    mUri = dataSpec.uri;
+                    SystemClock.sleep(mLatencyMs);
+                    mBody = mBodies.get(dataSpec.uri);
+                    if (mBody == null) {
+                        throw new IOException("no fixture for " + dataSpec.uri);
+                    }
+                    mPosition = (int) dataSpec.position;
+                    return mBody.length - mPosition;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int readLength) {
+                    if (mPosition == mBody.length) {
+                        return C.RESULT_END_OF_INPUT;
+                    }
+                    int read = Math.min(readLength, mBody.length - mPosition);
+                    System.arraycopy(mBody, mPosition, buffer, offset, read);
+                    mPosition += read;
+                    if (mPosition == mBody.length) {
+                        finish();
+                    }
+                    return read;
+                }
+
+                @Override
+                public Uri getUri() {
+                    return mUri;
+                }
+
+                @Override
+                public void close() {
+                    finish();
+                    mUri = null;
+                }
+            };
+        }
+    }
+}
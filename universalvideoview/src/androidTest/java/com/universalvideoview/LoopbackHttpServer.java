@@ -0,0 +1,155 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal HTTP/1.1 server on 127.0.0.1 for tests: serves fixed bodies by path, one request per
+ * connection, and counts the requests it answers. Single byte ranges are answered with a
+ * {@code 206} unless range support is turned off.
+ */
+class LoopbackHttpServer {
+
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final Map<String, byte[]> mBodies = new ConcurrentHashMap<>();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private volatile boolean mRangeSupported = true;
+
+    LoopbackHttpServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    final Socket socket;
+                    try {
+                        socket = mServerSocket.accept();
+                    } catch (IOException e) {
+                        return;
+                    }
+                    mExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Serves {@code body} at {@code path}.
+     *
+     * @return the URI of the body.
+     */
+    Uri serve(String path, byte[] body) {
+        mBodies.put(path, body);
+        return Uri.parse("http://127.0.0.1:" + mServerSocket.getLocalPort() + path);
+    }
+
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * Whether {@code Range} headers are honoured, otherwise the whole body is sent with a
+     * {@code 200}.
+     */
+    void setRangeSupported(boolean rangeSupported) {
+        mRangeSupported = rangeSupported;
+    }
+
+    void shutdown() throws IOException {
+        mServerSocket.close();
+        mExecutor.shutdownNow();
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            String requestLine = readLine(in);
+            String range = null;
+            String header;
+            while ((header = readLine(in)).length() > 0) {
+                if (header.regionMatches(true, 0, "Range:", 0, 6)) {
+                    range = header.substring(6).trim();
+                }
+            }
+            mRequestCount.incrementAndGet();
+            String path = requestLine.split(" ")[1];
+            byte[] body = mBodies.get(path);
+            OutputStream out = socket.getOutputStream();
+            Matcher matcher = range != null ? RANGE_PATTERN.matcher(range) : null;
+            if (body == null) {
+                out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+                        .getBytes("US-ASCII"));
+            } else if (mRangeSupported && matcher != null && matcher.matches()) {
+                int start = Integer.parseInt(matcher.group(1));
+                int end = matcher.group(2).isEmpty()
+                        ? body.length - 1 : Math.min(body.length - 1, Integer.parseInt(matcher.group(2)));
+                out.write(("HTTP/1.1 206 Partial Content\r\nContent-Type: application/octet-stream\r\n"
+                        + "Content-Range: bytes " + start + "-" + end + "/" + body.length
+                        + "\r\nContent-Length: " + (end - start + 1) + "\r\nConnection: close\r\n\r\n")
+                        .getBytes("US-ASCII"));
+                out.write(body, start, end - start + 1);
+            } else {
+                out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/octet-stream\r\nContent-Length: "
+                        + body.length + "\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+                out.write(body);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // the client went away
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+}
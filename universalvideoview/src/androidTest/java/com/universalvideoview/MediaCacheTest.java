@@ -0,0 +1,145 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Reads files from a {@link LoopbackHttpServer} through {@link MediaCache} and checks hits,
+ * LRU eviction at the size cap and pinning.
+ */
+public class MediaCacheTest extends AndroidTestCase {
+
+    private static final int FILE_SIZE = 100 * 1024;
+
+    private LoopbackHttpServer mServer;
+    private MediaCache mCache;
+    private DataSource.Factory mFactory;
+    private long mMaxBytes;
+    // keeps the keys of each test apart from earlier runs
+    private String mRun;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new LoopbackHttpServer();
+        mCache = MediaCache.getInstance(getContext());
+        mMaxBytes = mCache.getMaxBytes();
+        mFactory = mCache.buildDataSourceFactory(
+                MediaHttpClient.getInstance(getContext()).buildDataSourceFactory(null, null));
+        mRun = "/" + System.nanoTime();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.setMaxBytes(mMaxBytes);
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testSecondReadIsServedFromCache() throws IOException {
+        byte[] body = randomBytes(1);
+        Uri uri = mServer.serve(mRun + "/a.mp4", body);
+
+        assertTrue(Arrays.equals(body, read(uri)));
+        assertEquals(1, mServer.getRequestCount());
+        assertTrue(Arrays.equals(body, read(uri)));
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    public void testLeastRecentlyUsedIsEvictedAtTheCap() throws IOException {
+        Uri a = mServer.serve(mRun + "/a.mp4", randomBytes(1));
+        Uri b = mServer.serve(mRun + "/b.mp4", randomBytes(2));
+        Uri c = mServer.serve(mRun + "/c.mp4", randomBytes(3));
+        mCache.setMaxBytes(FILE_SIZE * 5 / 2);
+
+        read(a);
+        read(b);
+        // touch a, so b becomes the least recently used
+        read(a);
+        read(c);
+        assertEquals(3, mServer.getRequestCount());
+        assertTrue(mCache.getCacheSpace() <= FILE_SIZE * 5 / 2);
+
+        read(a);
+        read(c);
+        assertEquals(3, mServer.getRequestCount());
+        read(b);
+        assertEquals(4, mServer.getRequestCount());
+    }
+
+    public void testPinnedKeySurvivesEviction() throws IOException {
+        Uri a = mServer.serve(mRun + "/a.mp4", randomBytes(1));
+        Uri b = mServer.serve(mRun + "/b.mp4", randomBytes(2));
+        Uri c = mServer.serve(mRun + "/c.mp4", randomBytes(3));
+        mCache.setMaxBytes(FILE_SIZE * 5 / 2);
+        mCache.pin(a);
+        try {
+            read(a);
+            read(b);
+            read(c);
+            assertEquals(3, mServer.getRequestCount());
+
+            // a is the least recently used but pinned, b went instead
+            read(a);
+            assertEquals(3, mServer.getRequestCount());
+            read(b);
+            assertEquals(4, mServer.getRequestCount());
+        } finally {
+            mCache.unpin(a);
+        }
+    }
+
+    /**
+     * Reads the whole file. The length is given, so the cache only reserves that much space
+     * instead of its maximum file size.
+     */
+    private byte[] read(Uri uri) throws IOException {
+        // LRU order comes from access times in milliseconds
+        SystemClock.sleep(10);
+        DataSource dataSource = mFactory.createDataSource();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            dataSource.open(new DataSpec(uri, 0, FILE_SIZE, MediaCache.getKey(uri)));
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            dataSource.close();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(long seed) {
+        byte[] bytes = new byte[FILE_SIZE];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
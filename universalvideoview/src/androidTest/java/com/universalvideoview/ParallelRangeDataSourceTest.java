@@ -0,0 +1,105 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Reads files from a {@link LoopbackHttpServer} through {@link ParallelRangeDataSource} and
+ * checks that the chunks are put back together byte for byte.
+ */
+public class ParallelRangeDataSourceTest extends AndroidTestCase {
+
+    private static final int CONNECTIONS = 4;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // the window, the rest read over one connection and an odd tail
+    private static final int FILE_SIZE = CONNECTIONS * CHUNK_SIZE + 100 * 1024 + 7;
+
+    private LoopbackHttpServer mServer;
+    private DataSource.Factory mFactory;
+    private byte[] mBody;
+    private Uri mUri;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new LoopbackHttpServer();
+        mFactory = ParallelRangeDataSource.newFactory(
+                MediaHttpClient.getInstance(getContext()).buildDataSourceFactory(null, null),
+                CONNECTIONS, CHUNK_SIZE);
+        mBody = new byte[FILE_SIZE];
+        new Random(13).nextBytes(mBody);
+        mUri = mServer.serve("/video.mp4", mBody);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testReassemblesTheChunks() throws IOException {
+        assertTrue(Arrays.equals(mBody, read(new DataSpec(mUri))));
+        // the probe, one request per other chunk of the window and one for the rest
+        assertEquals(CONNECTIONS + 1, mServer.getRequestCount());
+    }
+
+    public void testReassemblesARangeStartingMidChunk() throws IOException {
+        int position = CHUNK_SIZE / 2 + 3;
+        int length = 2 * CHUNK_SIZE + 11;
+        byte[] expected = Arrays.copyOfRange(mBody, position, position + length);
+
+        assertTrue(Arrays.equals(expected, read(new DataSpec(mUri, position, length, null))));
+        // the window ends with the range, so nothing is left for a further request
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    public void testFallsBackToOneConnectionWithoutRangeSupport() throws IOException {
+        mServer.setRangeSupported(false);
+
+        assertTrue(Arrays.equals(mBody, read(new DataSpec(mUri))));
+        // the probe, then the whole file over a single connection
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    private byte[] read(DataSpec dataSpec) throws IOException {
+        DataSource dataSource = mFactory.createDataSource();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            dataSource.open(dataSpec);
+            // smaller than a chunk, so reads cross the chunk boundaries
+            byte[] buffer = new byte[5000];
+            int read;
+            while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            dataSource.close();
+        }
+        return out.toByteArray();
+    }
+}
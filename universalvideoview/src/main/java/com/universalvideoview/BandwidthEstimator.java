@@ -0,0 +1,47 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+
+/**
+ * Turns transfer samples into a throughput estimate. {@link SharedBandwidthMeter} keeps one
+ * estimator per network type and host, created by the {@link Factory} set with
+ * {@link SharedBandwidthMeter#setEstimatorFactory(Factory)}.
+ * <p>
+ * Implementations don't need to be thread-safe and shouldn't depend on Android classes, so
+ * they can be exercised on the JVM with recorded sample traces.
+ */
+public interface BandwidthEstimator {
+
+    long NO_ESTIMATE = BandwidthMeter.NO_ESTIMATE;
+
+    /**
+     * @param bytes     bytes transferred.
+     * @param elapsedMs time the transfer took, greater than 0.
+     */
+    void addSample(long bytes, long elapsedMs);
+
+    /**
+     * @return the estimated throughput in bits per second, or {@link #NO_ESTIMATE}.
+     */
+    long getBitrateEstimate();
+
+    interface Factory {
+        BandwidthEstimator createEstimator();
+    }
+}
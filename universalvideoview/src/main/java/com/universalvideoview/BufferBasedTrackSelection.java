@@ -0,0 +1,179 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.trackselection.BaseTrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+
+import java.util.Locale;
+
+/**
+ * Buffer-based adaptive selection in the style of BOLA. The bitrate follows the buffer level:
+ * the lowest track at {@code lowBufferMs}, rising with log utility to the highest track at
+ * {@code targetBufferMs}, so a sudden throughput collapse steps quality down as the buffer drains
+ * instead of waiting for the throughput estimate to catch up.
+ * <p>
+ * Until the buffer first reaches {@code lowBufferMs} the track is picked from the bandwidth
+ * estimate, and later up-switches never go past what the estimate sustains.
+ */
+class BufferBasedTrackSelection extends BaseTrackSelection {
+
+    private static final String TAG = "BufferBasedSelection";
+
+    private static final float THROUGHPUT_FRACTION = 0.75f;
+    private static final long DEFAULT_MAX_INITIAL_BITRATE = 800000;
+
+    static final class Factory implements TrackSelection.Factory {
+
+        private final BandwidthMeter mBandwidthMeter;
+        private final long mLowBufferMs;
+        private final long mTargetBufferMs;
+
+        Factory(BandwidthMeter bandwidthMeter, long lowBufferMs, long targetBufferMs) {
+            mBandwidthMeter = bandwidthMeter;
+            mLowBufferMs = lowBufferMs;
+            mTargetBufferMs = Math.max(targetBufferMs, lowBufferMs * 2);
+        }
+
+        @Override
+        public BufferBasedTrackSelection createTrackSelection(TrackGroup group, int... tracks) {
+            return new BufferBasedTrackSelection(group, tracks, mBandwidthMeter, mLowBufferMs, mTargetBufferMs);
+        }
+    }
+
+    private final BandwidthMeter mBandwidthMeter;
+    private final double mLowBufferS;
+    // ln(bitrate / lowest bitrate) + 1, per track
+    private final double[] mUtilities;
+    private final double mGp;
+    private final double mVp;
+    private boolean mStartup = true;
+    private int mSelectedIndex;
+    private int mReason = C.SELECTION_REASON_INITIAL;
+
+    private BufferBasedTrackSelection(TrackGroup group, int[] tracks, BandwidthMeter bandwidthMeter,
+                                      long lowBufferMs, long targetBufferMs) {
+        super(group, tracks);
+        mBandwidthMeter = bandwidthMeter;
+        mLowBufferS = lowBufferMs / 1000d;
+        mUtilities = new double[length];
+        int lowestBitrate = Integer.MAX_VALUE;
+        for (int i = 0; i < length; i++) {
+            lowestBitrate = Math.min(lowestBitrate, getBitrate(i));
+        }
+        double maxUtility = 1;
+        for (int i = 0; i < length; i++) {
+            mUtilities[i] = Math.log((double) getBitrate(i) / lowestBitrate) + 1;
+            maxUtility = Math.max(maxUtility, mUtilities[i]);
+        }
+        // same parameters as dash.js: utility ramps from the low to the target buffer level
+        double gp = (maxUtility - 1) / ((double) targetBufferMs / lowBufferMs - 1);
+        mGp = gp > 0 ? gp : 1;
+        mVp = mLowBufferS / mGp;
+        mSelectedIndex = selectByThroughput(Long.MIN_VALUE);
+    }
+
+    @Override
+    public void updateSelectedTrack(long playbackPositionUs, long bufferedDurationUs, long availableDurationUs) {
+        long nowMs = SystemClock.elapsedRealtime();
+        double bufferS = bufferedDurationUs / (double) C.MICROS_PER_SECOND;
+        int throughputIndex = selectByThroughput(nowMs);
+        if (mStartup && bufferS >= mLowBufferS) {
+            mStartup = false;
+        }
+        int newIndex;
+        if (mStartup) {
+            newIndex = throughputIndex;
+        } else {
+            newIndex = selectByBuffer(bufferS, nowMs);
+            // lower index is higher bitrate
+            int highestAllowed = Math.min(mSelectedIndex, throughputIndex);
+            while (highestAllowed < newIndex && isBlacklisted(highestAllowed, nowMs)) {
+                highestAllowed++;
+            }
+            newIndex = Math.max(newIndex, highestAllowed);
+        }
+        if (newIndex != mSelectedIndex) {
+            Log.d(TAG, String.format(Locale.US, "buffer %.1fs, %d -> %d kbps (throughput choice %d kbps)%s",
+                    bufferS, getBitrate(mSelectedIndex) / 1000, getBitrate(newIndex) / 1000,
+                    getBitrate(throughputIndex) / 1000, mStartup ? ", startup" : ""));
+            mSelectedIndex = newIndex;
+            mReason = C.SELECTION_REASON_ADAPTIVE;
+        }
+    }
+
+    @Override
+    public int getSelectedIndex() {
+        return mSelectedIndex;
+    }
+
+    @Override
+    public int getSelectionReason() {
+        return mReason;
+    }
+
+    @Override
+    public Object getSelectionData() {
+        return null;
+    }
+
+    private int selectByBuffer(double bufferS, long nowMs) {
+        int bestIndex = -1;
+        double bestScore = 0;
+        for (int i = 0; i < length; i++) {
+            if (isBlacklisted(i, nowMs)) {
+                continue;
+            }
+            double score = (mVp * (mUtilities[i] + mGp) - bufferS) / getBitrate(i);
+            if (bestIndex == -1 || score > bestScore) {
+                bestIndex = i;
+                bestScore = score;
+            }
+        }
+        return bestIndex == -1 ? mSelectedIndex : bestIndex;
+    }
+
+    /**
+     * @param nowMs {@link Long#MIN_VALUE} to ignore blacklisting.
+     */
+    private int selectByThroughput(long nowMs) {
+        long bitrateEstimate = mBandwidthMeter.getBitrateEstimate();
+        long effectiveBitrate = bitrateEstimate == BandwidthMeter.NO_ESTIMATE
+                ? DEFAULT_MAX_INITIAL_BITRATE : (long) (bitrateEstimate * THROUGHPUT_FRACTION);
+        int lowestBitrateNonBlacklistedIndex = 0;
+        for (int i = 0; i < length; i++) {
+            if (nowMs == Long.MIN_VALUE || !isBlacklisted(i, nowMs)) {
+                if (getBitrate(i) <= effectiveBitrate) {
+                    return i;
+                }
+                lowestBitrateNonBlacklistedIndex = i;
+            }
+        }
+        return lowestBitrateNonBlacklistedIndex;
+    }
+
+    private int getBitrate(int index) {
+        // tracks without a declared bitrate count as the cheapest
+        return Math.max(1, getFormat(index).bitrate);
+    }
+}
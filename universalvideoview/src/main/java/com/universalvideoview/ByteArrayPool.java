@@ -0,0 +1,53 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import java.util.ArrayDeque;
+
+/**
+ * Thread-safe pool of equally sized byte arrays, so cache blocks don't churn the heap.
+ */
+class ByteArrayPool {
+
+    private final int mArraySize;
+    private final int mMaxPooled;
+    private final ArrayDeque<byte[]> mPool = new ArrayDeque<>();
+
+    ByteArrayPool(int arraySize, int maxPooled) {
+        mArraySize = arraySize;
+        mMaxPooled = maxPooled;
+    }
+
+    int getArraySize() {
+        return mArraySize;
+    }
+
+    synchronized byte[] acquire() {
+        byte[] array = mPool.pollFirst();
+        return array != null ? array : new byte[mArraySize];
+    }
+
+    synchronized void release(byte[] array) {
+        if (array.length == mArraySize && mPool.size() < mMaxPooled) {
+            mPool.addFirst(array);
+        }
+    }
+
+    synchronized void clear() {
+        mPool.clear();
+    }
+}
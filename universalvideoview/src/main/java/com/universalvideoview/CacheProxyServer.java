@@ -0,0 +1,284 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.content.Context;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loopback HTTP proxy that serves media through {@link MediaCache}, so engines that only take a
+ * URI, like {@link android.media.MediaPlayer}, get the same disk cache as the ExoPlayer engine.
+ * <p>
+ * {@link #getProxyUri(Uri)} rewrites a remote URI to
+ * {@code http://127.0.0.1:<port>/<token>/<encoded uri>}. The token is random per process, so
+ * other apps on the device can't use the proxy to read the cache or reach the network.
+ * Requests are answered from the cache, misses are fetched upstream with the caller's request
+ * headers and written to the cache. Single byte ranges are supported so {@code seekTo()} works.
+ */
+public class CacheProxyServer {
+
+    private static final String TAG = "CacheProxyServer";
+
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final int BUFFER_SIZE = 16 * 1024;
+    // not forwarded upstream: hop-by-hop, or the proxy handles them itself
+    private static final Set<String> LOCAL_HEADERS = new HashSet<>(Arrays.asList("host", "connection",
+            "keep-alive", "proxy-connection", "proxy-authorization", "te", "trailer",
+            "transfer-encoding", "upgrade", "range", "accept-encoding"));
+
+    private static CacheProxyServer sInstance;
+
+    private final Context mContext;
+    private final String mToken;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private ServerSocket mServerSocket;
+
+    public static synchronized CacheProxyServer getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CacheProxyServer(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private CacheProxyServer(Context context) {
+        mContext = context;
+        byte[] token = new byte[16];
+        new SecureRandom().nextBytes(token);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : token) {
+            hex.append(String.format(Locale.US, "%02x", b));
+        }
+        mToken = hex.toString();
+        try {
+            mServerSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+            mExecutor.execute(mAcceptRunnable);
+            Log.d(TAG, "listening on port " + mServerSocket.getLocalPort());
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to start the cache proxy, playing uncached", e);
+            mServerSocket = null;
+        }
+    }
+
+    /**
+     * @return the proxied URI for remote {@code uri}, or {@code uri} itself when it can't be
+     * proxied.
+     */
+    public Uri getProxyUri(Uri uri) {
+        if (mServerSocket == null || !MediaCache.isCacheable(uri)) {
+            return uri;
+        }
+        return Uri.parse("http://127.0.0.1:" + mServerSocket.getLocalPort() + "/" + mToken + "/"
+                + Uri.encode(uri.toString()));
+    }
+
+    private final Runnable mAcceptRunnable = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    final Socket socket = mServerSocket.accept();
+                    mExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    });
+                } catch (IOException e) {
+                    Log.w(TAG, "accept failed, proxy stopped", e);
+                    mServerSocket = null;
+                    return;
+                }
+            }
+        }
+    };
+
+    private void serve(Socket socket) {
+        DataSource dataSource = null;
+        try {
+            InputStream in = socket.getInputStream();
+            String requestLine = readLine(in);
+            String rangeHeader = null;
+            Map<String, String> requestHeaders = new HashMap<>();
+            String line;
+            while (!TextUtils.isEmpty(line = readLine(in))) {
+                int colon = line.indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if ("range".equalsIgnoreCase(name)) {
+                    rangeHeader = value;
+                } else if (!LOCAL_HEADERS.contains(name.toLowerCase(Locale.US))) {
+                    requestHeaders.put(name, value);
+                }
+            }
+            String[] parts = requestLine == null ? new String[0] : requestLine.split(" ");
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+            String prefix = "/" + mToken + "/";
+            if (parts.length < 2 || parts[1].length() < prefix.length()) {
+                writeStatus(out, 400, "Bad Request");
+                return;
+            }
+            if (!MessageDigest.isEqual(prefix.getBytes("US-ASCII"),
+                    parts[1].substring(0, prefix.length()).getBytes("US-ASCII"))) {
+                writeStatus(out, 403, "Forbidden");
+                return;
+            }
+            boolean head = "HEAD".equals(parts[0]);
+            Uri uri = Uri.parse(Uri.decode(parts[1].substring(prefix.length())));
+
+            long start = 0;
+            long end = C.LENGTH_UNSET;
+            Matcher matcher = rangeHeader == null ? null : RANGE_PATTERN.matcher(rangeHeader);
+            boolean partial = matcher != null && matcher.matches();
+            if (partial) {
+                start = Long.parseLong(matcher.group(1));
+                if (!matcher.group(2).isEmpty()) {
+                    end = Long.parseLong(matcher.group(2));
+                }
+            }
+            long requestLength = end == C.LENGTH_UNSET ? C.LENGTH_UNSET : end - start + 1;
+
+            DataSource.Factory upstream = MediaHttpClient.getInstance(mContext)
+                    .buildDataSourceFactory(requestHeaders, SharedBandwidthMeter.getInstance(mContext));
+            DataSource.Factory factory = MediaCache.getInstance(mContext).buildDataSourceFactory(upstream);
+            dataSource = factory.createDataSource();
+            long length;
+            try {
+                length = dataSource.open(new DataSpec(uri, start, requestLength, MediaCache.getKey(uri)));
+                if (partial && length == C.LENGTH_UNSET) {
+                    // a 206 needs the last byte position, ignore the range and send the whole
+                    // resource instead, which a server is allowed to do
+                    partial = false;
+                    if (start != 0) {
+                        dataSource.close();
+                        start = 0;
+                        length = dataSource.open(new DataSpec(uri, 0, C.LENGTH_UNSET, MediaCache.getKey(uri)));
+                    }
+                }
+            } catch (HttpDataSource.InvalidResponseCodeException e) {
+                writeStatus(out, e.responseCode, "Upstream Error");
+                return;
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to open " + uri, e);
+                writeStatus(out, 502, "Bad Gateway");
+                return;
+            }
+
+            StringBuilder headers = new StringBuilder();
+            if (partial) {
+                headers.append("HTTP/1.1 206 Partial Content\r\n");
+                String total = requestLength == C.LENGTH_UNSET ? String.valueOf(start + length) : "*";
+                headers.append("Content-Range: bytes ").append(start).append('-')
+                        .append(start + length - 1).append('/').append(total).append("\r\n");
+            } else {
+                headers.append("HTTP/1.1 200 OK\r\n");
+            }
+            // without a length the body is delimited by closing the connection
+            if (length != C.LENGTH_UNSET) {
+                headers.append("Content-Length: ").append(length).append("\r\n");
+            }
+            headers.append("Content-Type: ").append(guessMimeType(uri)).append("\r\n");
+            headers.append("Accept-Ranges: bytes\r\n");
+            headers.append("Connection: close\r\n\r\n");
+            out.write(headers.toString().getBytes("US-ASCII"));
+
+            if (!head) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            out.flush();
+        } catch (SocketException e) {
+            // the player closed the connection, typically to seek
+        } catch (IOException e) {
+            Log.w(TAG, "proxy request failed", e);
+        } finally {
+            if (dataSource != null) {
+                try {
+                    dataSource.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static void writeStatus(OutputStream out, int code, String reason) throws IOException {
+        out.write(("HTTP/1.1 " + code + " " + reason + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                .getBytes("US-ASCII"));
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return c == -1 && line.length() == 0 ? null : line.toString();
+    }
+
+    private static String guessMimeType(Uri uri) {
+        String extension = MimeTypeMap.getFileExtensionFromUrl(uri.toString());
+        String mimeType = TextUtils.isEmpty(extension) ? null
+                : MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension.toLowerCase(Locale.US));
+        return mimeType != null ? mimeType : "application/octet-stream";
+    }
+}
@@ -0,0 +1,143 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process-wide data-saver policy. Once {@link #setEnabled(boolean) enabled}, it is active while
+ * the device is on a metered network: players cap the adaptive bitrate at
+ * {@link #setMaxBitrate(int)} and stop buffering ahead at {@link #setMaxBufferMs(long)}, and
+ * {@link MediaPrefetcher} downloads are suspended. Everything is relaxed again when an
+ * unmetered network such as Wi-Fi returns.
+ * <p>
+ * All methods must be called on the main thread.
+ */
+public class DataSaver {
+
+    private static final String TAG = "DataSaver";
+
+    public static final int DEFAULT_MAX_BITRATE = 800000;
+    public static final long DEFAULT_MAX_BUFFER_MS = 10000;
+
+    interface Listener {
+        void onDataSaverChanged(boolean active);
+    }
+
+    private static DataSaver sInstance;
+
+    private final ConnectivityManager mConnectivityManager;
+    private final List<Listener> mListeners = new ArrayList<>();
+    private boolean mEnabled;
+    private boolean mMetered;
+    private boolean mActive;
+    private int mMaxBitrate = DEFAULT_MAX_BITRATE;
+    private long mMaxBufferMs = DEFAULT_MAX_BUFFER_MS;
+
+    public static synchronized DataSaver getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DataSaver(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private DataSaver(Context context) {
+        mConnectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        mMetered = isNetworkMetered();
+        context.registerReceiver(mConnectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * Turns the policy on or off. Off by default.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        update();
+    }
+
+    /**
+     * Sets the highest adaptive bitrate selected while active, in bits per second.
+     * Takes effect on the next {@code setVideoURI()}.
+     */
+    public void setMaxBitrate(int maxBitrate) {
+        mMaxBitrate = maxBitrate;
+    }
+
+    /**
+     * Sets how much media is buffered ahead while active. Takes effect on the next
+     * {@code setVideoURI()}.
+     */
+    public void setMaxBufferMs(long maxBufferMs) {
+        mMaxBufferMs = maxBufferMs;
+    }
+
+    public int getMaxBitrate() {
+        return mMaxBitrate;
+    }
+
+    public long getMaxBufferMs() {
+        return mMaxBufferMs;
+    }
+
+    /**
+     * @return whether the policy is enabled and the current network is metered.
+     */
+    public boolean isActive() {
+        return mActive;
+    }
+
+    void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void update() {
+        boolean active = mEnabled && mMetered;
+        if (active == mActive) {
+            return;
+        }
+        mActive = active;
+        Log.d(TAG, active ? "active on a metered network" : "inactive");
+        LoadScheduler.getInstance().setBackgroundSuspended(active);
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            listener.onDataSaverChanged(active);
+        }
+    }
+
+    private boolean isNetworkMetered() {
+        return mConnectivityManager != null && mConnectivityManager.isActiveNetworkMetered();
+    }
+
+    private final BroadcastReceiver mConnectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mMetered = isNetworkMetered();
+            update();
+        }
+    };
+}
@@ -0,0 +1,83 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Counts the bytes a player downloads from the network, by network type, and passes the
+ * transfers on to {@link SharedBandwidthMeter}.
+ */
+class DataUsageCounter implements TransferListener<Object> {
+
+    private final SharedBandwidthMeter mBandwidthMeter;
+    // network type -> bytes
+    private final HashMap<String, Long> mBytes = new HashMap<>();
+    // network transfers in progress
+    private final IdentityHashMap<Object, Boolean> mActiveSources = new IdentityHashMap<>();
+
+    DataUsageCounter(SharedBandwidthMeter bandwidthMeter) {
+        mBandwidthMeter = bandwidthMeter;
+    }
+
+    synchronized void reset() {
+        mBytes.clear();
+    }
+
+    /**
+     * @return bytes downloaded since the last {@link #reset()}, by network type.
+     */
+    synchronized Map<String, Long> getBytes() {
+        return new HashMap<>(mBytes);
+    }
+
+    @Override
+    public void onTransferStart(Object source, DataSpec dataSpec) {
+        mBandwidthMeter.onTransferStart(source, dataSpec);
+        if (dataSpec.uri.getHost() != null) {
+            synchronized (this) {
+                mActiveSources.put(source, Boolean.TRUE);
+            }
+        }
+    }
+
+    @Override
+    public void onBytesTransferred(Object source, int bytesTransferred) {
+        mBandwidthMeter.onBytesTransferred(source, bytesTransferred);
+        String networkType = mBandwidthMeter.getCurrentNetworkType();
+        synchronized (this) {
+            if (!mActiveSources.containsKey(source)) {
+                return;
+            }
+            Long bytes = mBytes.get(networkType);
+            mBytes.put(networkType, (bytes != null ? bytes : 0) + bytesTransferred);
+        }
+    }
+
+    @Override
+    public void onTransferEnd(Object source) {
+        mBandwidthMeter.onTransferEnd(source);
+        synchronized (this) {
+            mActiveSources.remove(source);
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.ExoPlayerFactory;
+import com.google.android.exoplayer2.PlaybackParameters;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.trackselection.AdaptiveTrackSelection;
+import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Process-wide pool of pre-built {@link SimpleExoPlayer} instances.
+ * <p>
+ * Building a player (track selector, renderers, load control) costs tens of milliseconds on the
+ * main thread, so released players are parked here and handed out again to the next caller that
+ * asks for the same {@link Config}. Idle players are released after {@link #setIdleTimeoutMs}.
+ * <p>
+ * All methods must be called on the main thread.
+ */
+public class ExoPlayerPool {
+
+    private static final String TAG = "ExoPlayerPool";
+
+    public static final int DEFAULT_MAX_IDLE_PLAYERS = 2;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 30 * 1000;
+
+    private static ExoPlayerPool sInstance;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // most recently returned first
+    private final LinkedList<Entry> mIdleEntries = new LinkedList<>();
+    private int mMaxIdlePlayers = DEFAULT_MAX_IDLE_PLAYERS;
+    private long mIdleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+    private int mHitCount;
+    private int mMissCount;
+
+    public static ExoPlayerPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new ExoPlayerPool();
+        }
+        return sInstance;
+    }
+
+    private ExoPlayerPool() {
+    }
+
+    /**
+     * Sets how many idle players are kept around. Extra players are released right away.
+     */
+    public void setMaxIdlePlayers(int maxIdlePlayers) {
+        mMaxIdlePlayers = Math.max(0, maxIdlePlayers);
+        trimToSize(mMaxIdlePlayers);
+    }
+
+    /**
+     * Sets how long an idle player is kept before it is released.
+     */
+    public void setIdleTimeoutMs(long idleTimeoutMs) {
+        mIdleTimeoutMs = idleTimeoutMs;
+        scheduleEviction();
+    }
+
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    public int getIdleCount() {
+        return mIdleEntries.size();
+    }
+
+    /**
+     * Releases every idle player, e.g. from {@code Application.onTrimMemory()}.
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Returns an idle player built with {@code config}, or builds a new one.
+     */
+    Entry acquire(Context context, Config config) {
+        Iterator<Entry> iterator = mIdleEntries.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.config.equals(config)) {
+                iterator.remove();
+                mHitCount++;
+                Log.d(TAG, "acquire hit, hits=" + mHitCount + ", misses=" + mMissCount);
+                scheduleEviction();
+                return entry;
+            }
+        }
+        mMissCount++;
+        Log.d(TAG, "acquire miss, hits=" + mHitCount + ", misses=" + mMissCount);
+        return createEntry(context.getApplicationContext(), config);
+    }
+
+    /**
+     * Hands a player back to the pool. The caller must not touch it afterwards.
+     */
+    void release(Entry entry) {
+        SimpleExoPlayer player = entry.player;
+        player.stop();
+        player.setPlayWhenReady(false);
+        player.clearVideoSurface();
+        player.setVolume(1f);
+        player.setRepeatMode(Player.REPEAT_MODE_OFF);
+        player.setPlaybackParameters(PlaybackParameters.DEFAULT);
+        entry.loadControl.reset();
+        entry.viewport.setMaxVideoSize(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        entry.viewport.setMaxBitrate(Integer.MAX_VALUE);
+        if (mMaxIdlePlayers == 0) {
+            player.release();
+            return;
+        }
+        entry.idleSinceMs = SystemClock.elapsedRealtime();
+        mIdleEntries.addFirst(entry);
+        trimToSize(mMaxIdlePlayers);
+        scheduleEviction();
+    }
+
+    private Entry createEntry(Context context, Config config) {
+        // 所有播放器共用一个带宽计, 新会话直接用上次保存的估计值
+        SharedBandwidthMeter bandwidthMeter = SharedBandwidthMeter.getInstance(context);
+        TrackSelection.Factory videoTrackSelectionFactory;
+        if (config.trackSelection == Config.TRACK_SELECTION_BUFFER_BASED) {
+            videoTrackSelectionFactory = new BufferBasedTrackSelection.Factory(bandwidthMeter,
+                    config.bufferForPlaybackAfterRebufferMs, config.minBufferMs);
+        } else {
+            videoTrackSelectionFactory = new AdaptiveTrackSelection.Factory(bandwidthMeter);
+        }
+        ViewportTrackSelection.Factory viewport = new ViewportTrackSelection.Factory(videoTrackSelectionFactory);
+        DefaultTrackSelector trackSelector = new DefaultTrackSelector(viewport);
+        UniversalLoadControl loadControl = new UniversalLoadControl(new DefaultLoadControl(
+                new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE),
+                config.minBufferMs, config.maxBufferMs,
+                config.bufferForPlaybackMs, config.bufferForPlaybackAfterRebufferMs), config.maxBufferMs);
+        SimpleExoPlayer player = ExoPlayerFactory.newSimpleInstance(context, trackSelector, loadControl);
+        return new Entry(config, player, trackSelector, viewport, loadControl);
+    }
+
+    private void trimToSize(int maxSize) {
+        while (mIdleEntries.size() > maxSize) {
+            mIdleEntries.removeLast().player.release();
+        }
+    }
+
+    private void scheduleEviction() {
+        mHandler.removeCallbacks(mEvictRunnable);
+        if (!mIdleEntries.isEmpty()) {
+            long oldest = mIdleEntries.getLast().idleSinceMs;
+            long delay = oldest + mIdleTimeoutMs - SystemClock.elapsedRealtime();
+            mHandler.postDelayed(mEvictRunnable, Math.max(0, delay));
+        }
+    }
+
+    private final Runnable mEvictRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long now = SystemClock.elapsedRealtime();
+            while (!mIdleEntries.isEmpty() && now - mIdleEntries.getLast().idleSinceMs >= mIdleTimeoutMs) {
+                mIdleEntries.removeLast().player.release();
+                Log.d(TAG, "evicted idle player, idle=" + mIdleEntries.size());
+            }
+            scheduleEviction();
+        }
+    };
+
+    /**
+     * Track-selector and load-control configuration a pooled player is built with.
+     * Players are only shared between callers asking for equal configs.
+     */
+    public static final class Config {
+
+        /**
+         * Adaptive selection from the bandwidth estimate.
+         */
+        public static final int TRACK_SELECTION_THROUGHPUT = 0;
+        /**
+         * Adaptive selection from the buffer level, see {@link BufferBasedTrackSelection}.
+         */
+        public static final int TRACK_SELECTION_BUFFER_BASED = 1;
+
+        public static final Config DEFAULT = new Config(
+                DefaultLoadControl.DEFAULT_MIN_BUFFER_MS,
+                DefaultLoadControl.DEFAULT_MAX_BUFFER_MS,
+                DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS,
+                DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS);
+
+        public final int minBufferMs;
+        public final int maxBufferMs;
+        public final long bufferForPlaybackMs;
+        public final long bufferForPlaybackAfterRebufferMs;
+        public final int trackSelection;
+
+        public Config(int minBufferMs, int maxBufferMs, long bufferForPlaybackMs,
+                      long bufferForPlaybackAfterRebufferMs) {
+            this(minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs,
+                    TRACK_SELECTION_THROUGHPUT);
+        }
+
+        /**
+         * @param trackSelection {@link #TRACK_SELECTION_THROUGHPUT} or
+         *                       {@link #TRACK_SELECTION_BUFFER_BASED}.
+         */
+        public Config(int minBufferMs, int maxBufferMs, long bufferForPlaybackMs,
+                      long bufferForPlaybackAfterRebufferMs, int trackSelection) {
+            this.minBufferMs = minBufferMs;
+            this.maxBufferMs = maxBufferMs;
+            this.bufferForPlaybackMs = bufferForPlaybackMs;
+            this.bufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+            this.trackSelection = trackSelection;
+        }
+
+        /**
+         * @return a copy of this config using {@code trackSelection}.
+         */
+        public Config withTrackSelection(int trackSelection) {
+            return new Config(minBufferMs, maxBufferMs, bufferForPlaybackMs,
+                    bufferForPlaybackAfterRebufferMs, trackSelection);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Config)) {
+                return false;
+            }
+            Config other = (Config) o;
+            return minBufferMs == other.minBufferMs
+                    && maxBufferMs == other.maxBufferMs
+                    && bufferForPlaybackMs == other.bufferForPlaybackMs
+                    && bufferForPlaybackAfterRebufferMs == other.bufferForPlaybackAfterRebufferMs
+                    && trackSelection == other.trackSelection;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = minBufferMs;
+            result = 31 * result + maxBufferMs;
+            result = 31 * result + (int) (bufferForPlaybackMs ^ (bufferForPlaybackMs >>> 32));
+            result = 31 * result + (int) (bufferForPlaybackAfterRebufferMs ^ (bufferForPlaybackAfterRebufferMs >>> 32));
+            result = 31 * result + trackSelection;
+            return result;
+        }
+    }
+
+    /**
+     * A pooled player together with the components it was built from.
+     */
+    static final class Entry {
+        final Config config;
+        final SimpleExoPlayer player;
+        final DefaultTrackSelector trackSelector;
+        final ViewportTrackSelection.Factory viewport;
+        final UniversalLoadControl loadControl;
+        long idleSinceMs;
+
+        Entry(Config config, SimpleExoPlayer player, DefaultTrackSelector trackSelector,
+              ViewportTrackSelection.Factory viewport, UniversalLoadControl loadControl) {
+            this.config = config;
+            this.player = player;
+            this.trackSelector = trackSelector;
+            this.viewport = viewport;
+            this.loadControl = loadControl;
+        }
+    }
+}
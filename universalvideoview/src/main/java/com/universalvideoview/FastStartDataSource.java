@@ -0,0 +1,217 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.IOException;
+
+/**
+ * {@link DataSource} that starts MP4 files with a trailing {@code moov} faster.
+ * <p>
+ * When a file is opened from the start, the top-level box headers are peeked. If {@code mdat}
+ * comes before {@code moov}, everything after {@code mdat} is fetched with a range request in
+ * parallel with the head, so the extractor's seek to {@code moov} is served from memory instead
+ * of waiting for a new request. The prefetched tail is dropped as soon as an open doesn't need
+ * it, or if no open follows within {@link #TAIL_EXPIRY_MS} of a close, e.g. when the load is
+ * canceled.
+ */
+class FastStartDataSource implements DataSource {
+
+    private static final String TAG = "FastStartDataSource";
+
+    static final long TAIL_EXPIRY_MS = 5000;
+    private static final int PEEK_SIZE = 4096;
+    private static final long MAX_TAIL_SIZE = 8 * 1024 * 1024;
+    private static final int TYPE_FTYP = 0x66747970;
+    private static final int TYPE_MOOV = 0x6d6f6f76;
+    private static final int TYPE_MDAT = 0x6d646174;
+
+    private final DataSource.Factory mUpstreamFactory;
+
+    private Uri mUri;
+    private long mPosition;
+    private long mContentLength = C.LENGTH_UNSET;
+    private boolean mProbed;
+    private DataSource mHead;
+    private byte[] mPeek;
+    private int mPeekLength;
+    private RangeBuffer mTail;
+    private boolean mReadingTail;
+    private long mBytesRemaining;
+
+    static DataSource.Factory newFactory(final DataSource.Factory upstreamFactory) {
+        return new DataSource.Factory() {
+            @Override
+            public DataSource createDataSource() {
+                return new FastStartDataSource(upstreamFactory);
+            }
+        };
+    }
+
+    FastStartDataSource(DataSource.Factory upstreamFactory) {
+        mUpstreamFactory = upstreamFactory;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        mUri = dataSpec.uri;
+        mPosition = dataSpec.position;
+        if (mTail != null) {
+            // before the check, so the expiry can't cancel it in between
+            mTail.keep();
+        }
+        if (mTail != null && !mTail.hasFailed() && mPosition >= mTail.start && mPosition < mTail.getEnd()
+                && (dataSpec.length == C.LENGTH_UNSET || mPosition + dataSpec.length <= mTail.getEnd())) {
+            mReadingTail = true;
+            mBytesRemaining = dataSpec.length != C.LENGTH_UNSET ? dataSpec.length : mTail.getEnd() - mPosition;
+            Log.d(TAG, "serving " + mBytesRemaining + " bytes at " + mPosition + " from the prefetched tail");
+            return mBytesRemaining;
+        }
+        mReadingTail = false;
+        // moov has been read, or the extractor went elsewhere
+        cancelTail();
+        mPeekLength = 0;
+        mHead = mUpstreamFactory.createDataSource();
+        long length = mHead.open(dataSpec);
+        if (!mProbed && mPosition == 0 && dataSpec.length == C.LENGTH_UNSET) {
+            mProbed = true;
+            mContentLength = length;
+            probe(dataSpec);
+        }
+        return length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (readLength == 0) {
+            return 0;
+        }
+        if (mReadingTail) {
+            if (mBytesRemaining == 0) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            int read = mTail.read(mPosition, buffer, offset, (int) Math.min(readLength, mBytesRemaining));
+            mPosition += read;
+            mBytesRemaining -= read;
+            return read;
+        }
+        if (mPosition < mPeekLength) {
+            int count = (int) Math.min(readLength, mPeekLength - mPosition);
+            System.arraycopy(mPeek, (int) mPosition, buffer, offset, count);
+            mPosition += count;
+            return count;
+        }
+        int read = mHead.read(buffer, offset, readLength);
+        if (read > 0) {
+            mPosition += read;
+        }
+        return read;
+    }
+
+    @Override
+    public Uri getUri() {
+        return !mReadingTail && mHead != null ? mHead.getUri() : mUri;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReadingTail = false;
+        if (mTail != null) {
+            // the extractor's next open is usually the seek to moov; if none comes, the tail
+            // download is canceled
+            mTail.expireAfter(TAIL_EXPIRY_MS);
+        }
+        if (mHead != null) {
+            try {
+                mHead.close();
+            } finally {
+                mHead = null;
+            }
+        }
+    }
+
+    /**
+     * Walks the top-level boxes at the head and starts fetching the tail if {@code mdat} comes
+     * before {@code moov}.
+     */
+    private void probe(DataSpec dataSpec) throws IOException {
+        mPeek = new byte[PEEK_SIZE];
+        long offset = 0;
+        while (fillPeek(offset + 8)) {
+            long size = readUnsignedInt((int) offset);
+            int type = (int) readUnsignedInt((int) offset + 4);
+            int headerSize = 8;
+            if (size == 1) {
+                if (!fillPeek(offset + 16)) {
+                    return;
+                }
+                size = (readUnsignedInt((int) offset + 8) << 32) | readUnsignedInt((int) offset + 12);
+                headerSize = 16;
+            }
+            if ((offset == 0 && type != TYPE_FTYP) || type == TYPE_MOOV || size < headerSize) {
+                return;
+            }
+            if (type == TYPE_MDAT) {
+                long tailStart = offset + size;
+                long tailLength = mContentLength - tailStart;
+                if (mContentLength != C.LENGTH_UNSET && tailLength > 0 && tailLength <= MAX_TAIL_SIZE) {
+                    Log.d(TAG, "moov after mdat in " + dataSpec.uri + ", fetching " + tailLength
+                            + " bytes at " + tailStart);
+                    mTail = RangeBuffer.fetch(mUpstreamFactory,
+                            new DataSpec(dataSpec.uri, tailStart, tailLength, dataSpec.key, dataSpec.flags));
+                }
+                return;
+            }
+            offset += size;
+        }
+    }
+
+    /**
+     * @return whether the first {@code end} bytes of the file are in the peek buffer.
+     */
+    private boolean fillPeek(long end) throws IOException {
+        if (end > PEEK_SIZE) {
+            return false;
+        }
+        while (mPeekLength < end) {
+            int read = mHead.read(mPeek, mPeekLength, PEEK_SIZE - mPeekLength);
+            if (read == C.RESULT_END_OF_INPUT) {
+                return false;
+            }
+            mPeekLength += read;
+        }
+        return true;
+    }
+
+    private long readUnsignedInt(int position) {
+        return ((mPeek[position] & 0xFFL) << 24) | ((mPeek[position + 1] & 0xFFL) << 16)
+                | ((mPeek[position + 2] & 0xFFL) << 8) | (mPeek[position + 3] & 0xFFL);
+    }
+
+    private void cancelTail() {
+        if (mTail != null) {
+            mTail.cancel();
+            mTail = null;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
+import com.google.android.exoplayer2.extractor.Extractor;
+import com.google.android.exoplayer2.extractor.ExtractorInput;
+import com.google.android.exoplayer2.extractor.ExtractorOutput;
+import com.google.android.exoplayer2.extractor.ExtractorsFactory;
+import com.google.android.exoplayer2.extractor.PositionHolder;
+import com.google.android.exoplayer2.extractor.flv.FlvExtractor;
+import com.google.android.exoplayer2.extractor.mkv.MatroskaExtractor;
+import com.google.android.exoplayer2.extractor.mp3.Mp3Extractor;
+import com.google.android.exoplayer2.extractor.mp4.FragmentedMp4Extractor;
+import com.google.android.exoplayer2.extractor.mp4.Mp4Extractor;
+import com.google.android.exoplayer2.extractor.ogg.OggExtractor;
+import com.google.android.exoplayer2.extractor.ts.Ac3Extractor;
+import com.google.android.exoplayer2.extractor.ts.AdtsExtractor;
+import com.google.android.exoplayer2.extractor.ts.TsExtractor;
+import com.google.android.exoplayer2.extractor.wav.WavExtractor;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * {@link ExtractorsFactory} that only builds the extractors of a known container, so opening a
+ * file doesn't sniff it with every extractor in turn. Without a usable hint it builds the
+ * {@link DefaultExtractorsFactory} set.
+ * <p>
+ * Sniffing is timed either way and logged per open with the number of extractors tried and the
+ * bytes peeked, to compare hinted and unhinted opens.
+ */
+class HintedExtractorsFactory implements ExtractorsFactory {
+
+    private static final String TAG = "HintedExtractors";
+
+    private static final String CONTAINER_MP4 = "mp4";
+    private static final String CONTAINER_MATROSKA = "matroska";
+    private static final String CONTAINER_TS = "ts";
+    private static final String CONTAINER_MP3 = "mp3";
+    private static final String CONTAINER_ADTS = "adts";
+    private static final String CONTAINER_AC3 = "ac3";
+    private static final String CONTAINER_FLV = "flv";
+    private static final String CONTAINER_OGG = "ogg";
+    private static final String CONTAINER_WAV = "wav";
+
+    private static final HashMap<String, String> MIME_TYPE_CONTAINERS = new HashMap<>();
+    private static final HashMap<String, String> EXTENSION_CONTAINERS = new HashMap<>();
+
+    static {
+        MIME_TYPE_CONTAINERS.put("video/mp4", CONTAINER_MP4);
+        MIME_TYPE_CONTAINERS.put("audio/mp4", CONTAINER_MP4);
+        MIME_TYPE_CONTAINERS.put("video/quicktime", CONTAINER_MP4);
+        MIME_TYPE_CONTAINERS.put("video/3gpp", CONTAINER_MP4);
+        MIME_TYPE_CONTAINERS.put("video/webm", CONTAINER_MATROSKA);
+        MIME_TYPE_CONTAINERS.put("audio/webm", CONTAINER_MATROSKA);
+        MIME_TYPE_CONTAINERS.put("video/x-matroska", CONTAINER_MATROSKA);
+        MIME_TYPE_CONTAINERS.put("audio/x-matroska", CONTAINER_MATROSKA);
+        MIME_TYPE_CONTAINERS.put("video/mp2t", CONTAINER_TS);
+        MIME_TYPE_CONTAINERS.put("audio/mpeg", CONTAINER_MP3);
+        MIME_TYPE_CONTAINERS.put("audio/aac", CONTAINER_ADTS);
+        MIME_TYPE_CONTAINERS.put("audio/ac3", CONTAINER_AC3);
+        MIME_TYPE_CONTAINERS.put("video/x-flv", CONTAINER_FLV);
+        MIME_TYPE_CONTAINERS.put("audio/ogg", CONTAINER_OGG);
+        MIME_TYPE_CONTAINERS.put("audio/wav", CONTAINER_WAV);
+        MIME_TYPE_CONTAINERS.put("audio/x-wav", CONTAINER_WAV);
+
+        EXTENSION_CONTAINERS.put("mp4", CONTAINER_MP4);
+        EXTENSION_CONTAINERS.put("m4v", CONTAINER_MP4);
+        EXTENSION_CONTAINERS.put("m4a", CONTAINER_MP4);
+        EXTENSION_CONTAINERS.put("mov", CONTAINER_MP4);
+        EXTENSION_CONTAINERS.put("3gp", CONTAINER_MP4);
+        EXTENSION_CONTAINERS.put("webm", CONTAINER_MATROSKA);
+        EXTENSION_CONTAINERS.put("mkv", CONTAINER_MATROSKA);
+        EXTENSION_CONTAINERS.put("ts", CONTAINER_TS);
+        EXTENSION_CONTAINERS.put("mp3", CONTAINER_MP3);
+        EXTENSION_CONTAINERS.put("aac", CONTAINER_ADTS);
+        EXTENSION_CONTAINERS.put("ac3", CONTAINER_AC3);
+        EXTENSION_CONTAINERS.put("flv", CONTAINER_FLV);
+        EXTENSION_CONTAINERS.put("ogg", CONTAINER_OGG);
+        EXTENSION_CONTAINERS.put("wav", CONTAINER_WAV);
+    }
+
+    private final String mContainer;
+
+    /**
+     * @param mimeType container MIME type, or null to use the extension of {@code uri}.
+     * @param uri      the media URI.
+     */
+    HintedExtractorsFactory(String mimeType, Uri uri) {
+        String container = null;
+        if (mimeType != null) {
+            container = MIME_TYPE_CONTAINERS.get(mimeType.toLowerCase(Locale.US));
+        }
+        if (container == null && uri != null && uri.getLastPathSegment() != null) {
+            String segment = uri.getLastPathSegment();
+            int dot = segment.lastIndexOf('.');
+            if (dot >= 0) {
+                container = EXTENSION_CONTAINERS.get(segment.substring(dot + 1).toLowerCase(Locale.US));
+            }
+        }
+        mContainer = container;
+    }
+
+    /**
+     * A factory that sniffs with every extractor.
+     */
+    HintedExtractorsFactory() {
+        mContainer = null;
+    }
+
+    /**
+     * @return whether only the extractors of one container are built.
+     */
+    boolean isHinted() {
+        return mContainer != null;
+    }
+
+    @Override
+    public Extractor[] createExtractors() {
+        Extractor[] extractors = mContainer != null ? createHintedExtractors(mContainer)
+                : new DefaultExtractorsFactory().createExtractors();
+        SniffStats stats = new SniffStats(mContainer != null ? mContainer : "all formats");
+        Extractor[] timed = new Extractor[extractors.length];
+        for (int i = 0; i < extractors.length; i++) {
+            timed[i] = new SniffTimingExtractor(extractors[i], stats);
+        }
+        return timed;
+    }
+
+    private static Extractor[] createHintedExtractors(String container) {
+        switch (container) {
+            case CONTAINER_MP4:
+                // a fragmented file can't be told apart by its name
+                return new Extractor[]{new Mp4Extractor(), new FragmentedMp4Extractor()};
+            case CONTAINER_MATROSKA:
+                return new Extractor[]{new MatroskaExtractor()};
+            case CONTAINER_TS:
+                return new Extractor[]{new TsExtractor()};
+            case CONTAINER_MP3:
+                return new Extractor[]{new Mp3Extractor()};
+            case CONTAINER_ADTS:
+                return new Extractor[]{new AdtsExtractor()};
+            case CONTAINER_AC3:
+                return new Extractor[]{new Ac3Extractor()};
+            case CONTAINER_FLV:
+                return new Extractor[]{new FlvExtractor()};
+            case CONTAINER_OGG:
+                return new Extractor[]{new OggExtractor()};
+            case CONTAINER_WAV:
+                return new Extractor[]{new WavExtractor()};
+            default:
+                return new DefaultExtractorsFactory().createExtractors();
+        }
+    }
+
+    private static final class SniffStats {
+        final String label;
+        int tried;
+        long peekedBytes;
+        long timeNs;
+
+        SniffStats(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * Delegates to an extractor and adds its sniffing cost to the shared {@link SniffStats}.
+     */
+    private static final class SniffTimingExtractor implements Extractor {
+        private final Extractor mDelegate;
+        private final SniffStats mStats;
+
+        SniffTimingExtractor(Extractor delegate, SniffStats stats) {
+            mDelegate = delegate;
+            mStats = stats;
+        }
+
+        @Override
+        public boolean sniff(ExtractorInput input) throws IOException, InterruptedException {
+            long startNs = System.nanoTime();
+            boolean result = false;
+            try {
+                result = mDelegate.sniff(input);
+                return result;
+            } finally {
+                mStats.tried++;
+                mStats.timeNs += System.nanoTime() - startNs;
+                // peeked data is buffered by the input, so the I/O is the furthest peek
+                mStats.peekedBytes = Math.max(mStats.peekedBytes, input.getPeekPosition() - input.getPosition());
+                if (result) {
+                    Log.d(TAG, "sniffed " + mStats.label + " with " + mStats.tried + " extractor(s), peeked "
+                            + mStats.peekedBytes + " bytes in " + mStats.timeNs / 1000 + "us, selected "
+                            + mDelegate.getClass().getSimpleName());
+                }
+            }
+        }
+
+        @Override
+        public void init(ExtractorOutput output) {
+            mDelegate.init(output);
+        }
+
+        @Override
+        public int read(ExtractorInput input, PositionHolder seekPosition)
+                throws IOException, InterruptedException {
+            return mDelegate.read(input, seekPosition);
+        }
+
+        @Override
+        public void seek(long position, long timeUs) {
+            mDelegate.seek(position, timeUs);
+        }
+
+        @Override
+        public void release() {
+            mDelegate.release();
+        }
+    }
+}
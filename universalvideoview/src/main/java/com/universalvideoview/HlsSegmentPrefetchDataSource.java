@@ -0,0 +1,148 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * {@link DataSource} of {@link HlsSegmentPrefetcher}. Serves prefetched segments from memory,
+ * reads everything else from upstream and hands the media playlists it reads to the prefetcher.
+ */
+class HlsSegmentPrefetchDataSource implements DataSource {
+
+    private static final String TAG = "HlsSegmentPrefetch";
+
+    private static final byte[] PLAYLIST_HEADER = {'#', 'E', 'X', 'T', 'M', '3', 'U'};
+    private static final int MAX_PLAYLIST_SIZE = 1024 * 1024;
+
+    private final HlsSegmentPrefetcher mPrefetcher;
+    private final DataSource mUpstream;
+
+    private Uri mUri;
+    private RangeBuffer mBuffer;
+    private long mPosition;
+    private boolean mUpstreamOpen;
+    private ByteArrayOutputStream mPlaylist;
+    private boolean mPlaylistChecked;
+    private boolean mPlaylistComplete;
+
+    HlsSegmentPrefetchDataSource(HlsSegmentPrefetcher prefetcher, DataSource upstream) {
+        mPrefetcher = prefetcher;
+        mUpstream = upstream;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        mUri = dataSpec.uri;
+        mPosition = dataSpec.position;
+        if (dataSpec.position == 0 && dataSpec.length == C.LENGTH_UNSET) {
+            mBuffer = mPrefetcher.take(dataSpec.uri);
+            if (mBuffer != null) {
+                mPrefetcher.onSegmentOpened(dataSpec.uri);
+                Log.d(TAG, "serving prefetched segment " + dataSpec.uri);
+                return mBuffer.getLoadedLength();
+            }
+        }
+        long length = mUpstream.open(dataSpec);
+        mUpstreamOpen = true;
+        if (mPrefetcher.isSegment(dataSpec.uri)) {
+            mPrefetcher.onSegmentOpened(dataSpec.uri);
+        } else if (dataSpec.position == 0) {
+            // might be a playlist, decided by the first bytes
+            mPlaylist = new ByteArrayOutputStream();
+            mPlaylistChecked = false;
+            mPlaylistComplete = false;
+        }
+        return length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (mBuffer != null) {
+            long startMs = SystemClock.elapsedRealtime();
+            int read = mBuffer.read(mPosition, buffer, offset, readLength);
+            long waitedMs = SystemClock.elapsedRealtime() - startMs;
+            if (waitedMs > 100) {
+                Log.d(TAG, "waited " + waitedMs + "ms for prefetched " + mUri);
+            }
+            if (read > 0) {
+                mPosition += read;
+            }
+            return read;
+        }
+        int read = mUpstream.read(buffer, offset, readLength);
+        if (mPlaylist != null) {
+            if (read == C.RESULT_END_OF_INPUT) {
+                mPlaylistComplete = true;
+            } else {
+                mPlaylist.write(buffer, offset, read);
+                if (!mPlaylistChecked && mPlaylist.size() >= PLAYLIST_HEADER.length) {
+                    mPlaylistChecked = true;
+                    if (!startsLikePlaylist()) {
+                        mPlaylist = null;
+                    }
+                }
+                if (mPlaylist != null && mPlaylist.size() > MAX_PLAYLIST_SIZE) {
+                    mPlaylist = null;
+                }
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public Uri getUri() {
+        return mBuffer != null ? mUri : mUpstream.getUri();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mBuffer != null) {
+            // stops the download if the player gave up on the segment
+            mBuffer.cancel();
+            mBuffer = null;
+        }
+        if (mPlaylist != null && mPlaylistComplete) {
+            // segments are relative to the playlist's location after redirects, as in the parser
+            mPrefetcher.onPlaylistLoaded(mUpstream.getUri(), mPlaylist.toString("UTF-8"));
+        }
+        mPlaylist = null;
+        if (mUpstreamOpen) {
+            mUpstreamOpen = false;
+            mUpstream.close();
+        }
+    }
+
+    private boolean startsLikePlaylist() {
+        byte[] head = mPlaylist.toByteArray();
+        for (int i = 0; i < PLAYLIST_HEADER.length; i++) {
+            if (head[i] != PLAYLIST_HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
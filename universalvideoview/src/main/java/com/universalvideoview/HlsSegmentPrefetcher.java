@@ -0,0 +1,233 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.util.UriUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps up to {@code maxInFlight} HLS segment requests running ahead of the segment the player
+ * is loading, so segment loads overlap instead of paying one round trip each.
+ * <p>
+ * Media playlists read through {@link HlsSegmentPrefetchDataSource} are parsed for their segment
+ * URIs and {@code #EXTINF} durations. When the player opens a segment, the following ones are
+ * requested in the background until {@code maxInFlight} requests are running, the media ahead
+ * of the playback position would exceed the player's current buffer limit, or the
+ * prefetched bytes would use up what is left of the player's memory budget. The player then
+ * reads them in order from memory. Playlists with byte ranges are not prefetched.
+ */
+class HlsSegmentPrefetcher {
+
+    private static final String TAG = "HlsSegmentPrefetcher";
+
+    private final DataSource.Factory mUpstreamFactory;
+    private final int mMaxInFlight;
+    private final UniversalLoadControl mLoadControl;
+    // segment uri -> segment, of all parsed playlists
+    private final HashMap<String, Segment> mSegments = new HashMap<>();
+    // playlist uri -> its segments
+    private final HashMap<String, List<Segment>> mPlaylists = new HashMap<>();
+    // segment uri -> running or finished prefetch
+    private final HashMap<String, RangeBuffer> mBuffers = new HashMap<>();
+    private String mOpenedUri;
+
+    /**
+     * @param upstreamFactory loads playlists and segments.
+     * @param maxInFlight     segment requests running at the same time, including the player's.
+     * @param loadControl     of the player, for its buffered duration, buffer limit and memory
+     *                        budget.
+     */
+    HlsSegmentPrefetcher(DataSource.Factory upstreamFactory, int maxInFlight,
+                         UniversalLoadControl loadControl) {
+        mUpstreamFactory = upstreamFactory;
+        mMaxInFlight = maxInFlight;
+        mLoadControl = loadControl;
+    }
+
+    DataSource.Factory buildDataSourceFactory() {
+        return new DataSource.Factory() {
+            @Override
+            public DataSource createDataSource() {
+                return new HlsSegmentPrefetchDataSource(HlsSegmentPrefetcher.this,
+                        mUpstreamFactory.createDataSource());
+            }
+        };
+    }
+
+    synchronized boolean isSegment(Uri uri) {
+        return mSegments.containsKey(uri.toString());
+    }
+
+    /**
+     * Hands over the prefetch of {@code uri}, if there is a usable one.
+     */
+    synchronized RangeBuffer take(Uri uri) {
+        RangeBuffer buffer = mBuffers.remove(uri.toString());
+        if (buffer != null && buffer.hasFailed()) {
+            return null;
+        }
+        return buffer;
+    }
+
+    /**
+     * Starts prefetching the segments after {@code uri} and drops prefetches that are no longer
+     * ahead of it, e.g. after a seek or a variant switch.
+     */
+    synchronized void onSegmentOpened(Uri uri) {
+        Segment opened = mSegments.get(uri.toString());
+        if (opened == null) {
+            return;
+        }
+        mOpenedUri = opened.uri;
+        List<Segment> segments = mPlaylists.get(opened.playlist);
+        Iterator<Map.Entry<String, RangeBuffer>> iterator = mBuffers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, RangeBuffer> entry = iterator.next();
+            Segment segment = mSegments.get(entry.getKey());
+            if (segment == null || !segment.playlist.equals(opened.playlist) || segment.index <= opened.index) {
+                entry.getValue().cancel();
+                iterator.remove();
+            }
+        }
+        // the opened segment starts where the player's buffer ends
+        long aheadUs = mLoadControl.getBufferedDurationUs() + opened.durationUs;
+        // read every time, data saver and preloading lower it while the player is in use
+        long maxAheadUs = mLoadControl.getMaxBufferUs();
+        long budgetBytes = mLoadControl.getRemainingBufferBytes();
+        for (RangeBuffer buffer : mBuffers.values()) {
+            budgetBytes -= buffer.getFilledLength();
+        }
+        int inFlight = 1 + mBuffers.size();
+        for (int i = opened.index + 1; i < segments.size() && inFlight < mMaxInFlight; i++) {
+            Segment segment = segments.get(i);
+            aheadUs += segment.durationUs;
+            if (aheadUs > maxAheadUs) {
+                break;
+            }
+            if (!mBuffers.containsKey(segment.uri)) {
+                if (budgetBytes <= 0) {
+                    break;
+                }
+                mBuffers.put(segment.uri, RangeBuffer.fetch(mUpstreamFactory,
+                        new DataSpec(Uri.parse(segment.uri), 0, C.LENGTH_UNSET, null)));
+                inFlight++;
+            }
+        }
+        cancelBeyond(opened, segments, maxAheadUs);
+    }
+
+    /**
+     * Cancels the prefetches that end beyond the player's buffer limit, e.g. after data saver
+     * lowered it.
+     */
+    synchronized void onBufferLimitChanged() {
+        Segment opened = mOpenedUri != null ? mSegments.get(mOpenedUri) : null;
+        if (opened != null) {
+            cancelBeyond(opened, mPlaylists.get(opened.playlist), mLoadControl.getMaxBufferUs());
+        }
+    }
+
+    private void cancelBeyond(Segment opened, List<Segment> segments, long maxAheadUs) {
+        long aheadUs = mLoadControl.getBufferedDurationUs() + opened.durationUs;
+        for (int i = opened.index + 1; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            aheadUs += segment.durationUs;
+            if (aheadUs > maxAheadUs) {
+                RangeBuffer buffer = mBuffers.remove(segment.uri);
+                if (buffer != null) {
+                    buffer.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes the segments of a media playlist. Replaces the previous version of a live playlist.
+     */
+    synchronized void onPlaylistLoaded(Uri playlistUri, String playlist) {
+        String playlistKey = playlistUri.toString();
+        List<Segment> previous = mPlaylists.remove(playlistKey);
+        if (previous != null) {
+            for (Segment segment : previous) {
+                mSegments.remove(segment.uri);
+            }
+        }
+        if (playlist.contains("#EXT-X-BYTERANGE")) {
+            return;
+        }
+        List<Segment> segments = new ArrayList<>();
+        long durationUs = C.TIME_UNSET;
+        for (String line : playlist.split("\n")) {
+            line = line.trim();
+            if (line.startsWith("#EXTINF:")) {
+                int comma = line.indexOf(',');
+                String duration = line.substring(8, comma > 0 ? comma : line.length());
+                try {
+                    durationUs = (long) (Double.parseDouble(duration) * C.MICROS_PER_SECOND);
+                } catch (NumberFormatException e) {
+                    durationUs = C.TIME_UNSET;
+                }
+            } else if (!line.isEmpty() && !line.startsWith("#") && durationUs != C.TIME_UNSET) {
+                Segment segment = new Segment(UriUtil.resolve(playlistKey, line), playlistKey,
+                        segments.size(), durationUs);
+                segments.add(segment);
+                mSegments.put(segment.uri, segment);
+                durationUs = C.TIME_UNSET;
+            }
+        }
+        if (!segments.isEmpty()) {
+            mPlaylists.put(playlistKey, segments);
+            Log.d(TAG, "indexed " + segments.size() + " segments of " + playlistUri);
+        }
+    }
+
+    /**
+     * Cancels all prefetches.
+     */
+    synchronized void release() {
+        mOpenedUri = null;
+        for (RangeBuffer buffer : mBuffers.values()) {
+            buffer.cancel();
+        }
+        mBuffers.clear();
+    }
+
+    private static final class Segment {
+        final String uri;
+        final String playlist;
+        final int index;
+        final long durationUs;
+
+        Segment(String uri, String playlist, int index, long durationUs) {
+            this.uri = uri;
+            this.playlist = playlist;
+            this.index = index;
+            this.durationUs = durationUs;
+        }
+    }
+}
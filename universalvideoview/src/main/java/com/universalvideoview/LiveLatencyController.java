@@ -0,0 +1,205 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.PlaybackParameters;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.Timeline;
+
+/**
+ * Keeps a live stream at a target distance behind the live edge, the end of the live window.
+ * <p>
+ * When playback falls behind the target it is sped up by 1% per second of extra offset, at
+ * most {@link #MAX_CATCH_UP_SPEED}, and returns to normal speed once back at the target. When
+ * playback resumes after a stall that left it more than {@link #JUMP_THRESHOLD_MS} behind, it
+ * jumps to the target instead. Used on the main thread.
+ */
+class LiveLatencyController {
+
+    private static final String TAG = "LiveLatencyController";
+
+    static final float MAX_CATCH_UP_SPEED = 1.08f;
+    static final long JUMP_THRESHOLD_MS = 5000;
+    private static final float CATCH_UP_SPEED_PER_SECOND = 0.01f;
+    private static final long TOLERANCE_MS = 500;
+    private static final long CHECK_INTERVAL_MS = 1000;
+
+    interface Listener {
+        void onLiveOffset(long offsetMs, float speed);
+    }
+
+    private final Handler mHandler = new Handler();
+    private final Timeline.Window mWindow = new Timeline.Window();
+    private final Listener mListener;
+    private SimpleExoPlayer mPlayer;
+    private long mTargetOffsetMs;
+    private float mSpeed = 1f;
+    private boolean mStalled;
+    private boolean mSeeking;
+
+    private long mOffsetMs = C.TIME_UNSET;
+    private long mOffsetSumMs;
+    private int mOffsetSamples;
+    private long mMaxOffsetMs;
+    private int mJumpCount;
+
+    LiveLatencyController(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @param targetOffsetMs distance to keep behind the live edge, 0 to leave live playback alone.
+     */
+    void setTargetOffsetMs(long targetOffsetMs) {
+        mTargetOffsetMs = targetOffsetMs;
+        schedule();
+    }
+
+    void attach(SimpleExoPlayer player) {
+        mPlayer = player;
+        mSpeed = player.getPlaybackParameters().speed;
+        reset();
+        schedule();
+    }
+
+    /**
+     * Clears the state and statistics of the previous clip.
+     */
+    void reset() {
+        mStalled = false;
+        mSeeking = false;
+        mOffsetMs = C.TIME_UNSET;
+        mOffsetSumMs = 0;
+        mOffsetSamples = 0;
+        mMaxOffsetMs = 0;
+        mJumpCount = 0;
+    }
+
+    void detach() {
+        mHandler.removeCallbacks(mCheckRunnable);
+        mPlayer = null;
+    }
+
+    /**
+     * @return the last measured distance behind the live edge, or {@link C#TIME_UNSET}.
+     */
+    long getOffsetMs() {
+        return mOffsetMs;
+    }
+
+    long getAverageOffsetMs() {
+        return mOffsetSamples == 0 ? C.TIME_UNSET : mOffsetSumMs / mOffsetSamples;
+    }
+
+    long getMaxOffsetMs() {
+        return mMaxOffsetMs;
+    }
+
+    int getJumpCount() {
+        return mJumpCount;
+    }
+
+    void onPlaybackStateChanged(boolean playWhenReady, int playbackState) {
+        if (mPlayer == null || mTargetOffsetMs <= 0) {
+            return;
+        }
+        if (playbackState == Player.STATE_BUFFERING && playWhenReady && !mSeeking) {
+            mStalled = true;
+        } else if (playbackState == Player.STATE_READY) {
+            mSeeking = false;
+            if (!mStalled) {
+                return;
+            }
+            mStalled = false;
+            long offsetMs = measureOffsetMs();
+            if (offsetMs != C.TIME_UNSET && offsetMs - mTargetOffsetMs > JUMP_THRESHOLD_MS) {
+                Log.d(TAG, "offset " + offsetMs + "ms after a stall, jumping to " + mTargetOffsetMs + "ms");
+                mJumpCount++;
+                mPlayer.seekTo(mWindow.getDurationMs() - mTargetOffsetMs);
+            }
+        }
+    }
+
+    void onPositionDiscontinuity(int reason) {
+        if (reason == Player.DISCONTINUITY_REASON_SEEK) {
+            // buffering after a seek is not a stall, and a seek back is deliberate
+            mStalled = false;
+            mSeeking = true;
+        }
+    }
+
+    void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
+        mSpeed = playbackParameters.speed;
+    }
+
+    private void schedule() {
+        mHandler.removeCallbacks(mCheckRunnable);
+        if (mPlayer != null && mTargetOffsetMs > 0) {
+            mHandler.postDelayed(mCheckRunnable, CHECK_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * @return the distance from the position to the end of the live window, or
+     * {@link C#TIME_UNSET} if the current window isn't live.
+     */
+    private long measureOffsetMs() {
+        Timeline timeline = mPlayer.getCurrentTimeline();
+        if (timeline.isEmpty()) {
+            return C.TIME_UNSET;
+        }
+        timeline.getWindow(mPlayer.getCurrentWindowIndex(), mWindow);
+        if (!mWindow.isDynamic || mWindow.getDurationMs() == C.TIME_UNSET) {
+            return C.TIME_UNSET;
+        }
+        return Math.max(0, mWindow.getDurationMs() - mPlayer.getCurrentPosition());
+    }
+
+    private void setSpeed(float speed) {
+        if (Math.abs(speed - mSpeed) >= 0.005f) {
+            mSpeed = speed;
+            mPlayer.setPlaybackParameters(new PlaybackParameters(speed, 1f));
+        }
+    }
+
+    private final Runnable mCheckRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long offsetMs = measureOffsetMs();
+            if (offsetMs != C.TIME_UNSET) {
+                mOffsetMs = offsetMs;
+                mOffsetSumMs += offsetMs;
+                mOffsetSamples++;
+                mMaxOffsetMs = Math.max(mMaxOffsetMs, offsetMs);
+                boolean playing = mPlayer.getPlayWhenReady() && mPlayer.getPlaybackState() == Player.STATE_READY;
+                long behindMs = offsetMs - mTargetOffsetMs;
+                if (!playing || behindMs <= 0) {
+                    setSpeed(1f);
+                } else if (behindMs > TOLERANCE_MS || mSpeed > 1f) {
+                    setSpeed(Math.min(MAX_CATCH_UP_SPEED, 1f + CATCH_UP_SPEED_PER_SECOND * behindMs / 1000f));
+                }
+                mListener.onLiveOffset(offsetMs, mSpeed);
+            }
+            schedule();
+        }
+    };
+}
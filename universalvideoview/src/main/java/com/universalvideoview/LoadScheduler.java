@@ -0,0 +1,149 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.util.PriorityTaskManager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide arbitration between playback loading and background work such as prefetching.
+ * <p>
+ * A player whose buffer drops below {@link #setRefillThresholdMs refill threshold} registers
+ * {@link #PRIORITY_PLAYBACK} until it is refilled. Lower priority loaders call
+ * {@link #proceed(int, String)} before each read and block while a higher priority task is
+ * registered, so the refill gets the bandwidth and the background work resumes afterwards.
+ * Background loads can also be held back for as long as needed with
+ * {@link #setBackgroundSuspended(boolean)}.
+ */
+public class LoadScheduler {
+
+    private static final String TAG = "LoadScheduler";
+
+    public static final int PRIORITY_PLAYBACK = C.PRIORITY_PLAYBACK;
+    public static final int PRIORITY_PREFETCH = C.PRIORITY_DOWNLOAD;
+    public static final long DEFAULT_REFILL_THRESHOLD_MS = 5000;
+    private static final int MAX_TRACKED_TASKS = 64;
+
+    private static final LoadScheduler sInstance = new LoadScheduler();
+
+    private final PriorityTaskManager mTaskManager = new PriorityTaskManager();
+    private volatile long mRefillThresholdUs = C.msToUs(DEFAULT_REFILL_THRESHOLD_MS);
+    // task tag -> {total wait ms, number of waits}
+    private final LinkedHashMap<String, long[]> mWaitTimes = new LinkedHashMap<String, long[]>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+            return size() > MAX_TRACKED_TASKS;
+        }
+    };
+    private long mTotalWaitMs;
+    private boolean mBackgroundSuspended;
+
+    public static LoadScheduler getInstance() {
+        return sInstance;
+    }
+
+    private LoadScheduler() {
+    }
+
+    /**
+     * Sets the buffered duration below which a playing player preempts background loads.
+     */
+    public void setRefillThresholdMs(long thresholdMs) {
+        mRefillThresholdUs = C.msToUs(thresholdMs);
+    }
+
+    long getRefillThresholdUs() {
+        return mRefillThresholdUs;
+    }
+
+    /**
+     * Holds back every background load until called again with {@code false}.
+     */
+    synchronized void setBackgroundSuspended(boolean suspended) {
+        if (suspended == mBackgroundSuspended) {
+            return;
+        }
+        mBackgroundSuspended = suspended;
+        if (suspended) {
+            mTaskManager.add(PRIORITY_PLAYBACK);
+        } else {
+            mTaskManager.remove(PRIORITY_PLAYBACK);
+        }
+    }
+
+    void add(int priority) {
+        mTaskManager.add(priority);
+    }
+
+    void remove(int priority) {
+        mTaskManager.remove(priority);
+    }
+
+    /**
+     * Blocks until no task with a higher priority than {@code priority} is registered. The
+     * caller must have {@link #add added} its own priority.
+     *
+     * @param tag identifies the task in the wait statistics.
+     */
+    void proceed(int priority, String tag) throws InterruptedException {
+        long startMs = SystemClock.elapsedRealtime();
+        mTaskManager.proceed(priority);
+        long waitedMs = SystemClock.elapsedRealtime() - startMs;
+        if (waitedMs > 0) {
+            synchronized (this) {
+                long[] stats = mWaitTimes.get(tag);
+                if (stats == null) {
+                    stats = new long[2];
+                    mWaitTimes.put(tag, stats);
+                }
+                stats[0] += waitedMs;
+                stats[1]++;
+                mTotalWaitMs += waitedMs;
+            }
+            Log.d(TAG, tag + " waited " + waitedMs + "ms for higher priority loads");
+        }
+    }
+
+    /**
+     * @return total time the task identified by {@code tag} was held back, in milliseconds.
+     */
+    public synchronized long getWaitTimeMs(String tag) {
+        long[] stats = mWaitTimes.get(tag);
+        return stats != null ? stats[0] : 0;
+    }
+
+    /**
+     * @return how many times the task identified by {@code tag} was held back.
+     */
+    public synchronized int getWaitCount(String tag) {
+        long[] stats = mWaitTimes.get(tag);
+        return stats != null ? (int) stats[1] : 0;
+    }
+
+    /**
+     * @return time all background tasks were held back, in milliseconds.
+     */
+    public synchronized long getTotalWaitTimeMs() {
+        return mTotalWaitMs;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSourceFactory;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+
+import java.io.File;
+
+/**
+ * Process-wide, size-bounded on-disk media cache with LRU eviction.
+ * <p>
+ * Items are keyed by their URI string, which is also the key {@link CacheDataSource} uses when
+ * no custom cache key is given. Pinned items are never evicted.
+ */
+public class MediaCache {
+
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    private static final String CACHE_DIR = "uvv_media_cache";
+
+    private static MediaCache sInstance;
+
+    private final SimpleCache mCache;
+    private final PinnableCacheEvictor mEvictor;
+
+    public static synchronized MediaCache getInstance(Context context) {
+        if (sInstance == null) {
+            File dir = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR);
+            sInstance = new MediaCache(dir, DEFAULT_MAX_BYTES);
+        }
+        return sInstance;
+    }
+
+    private MediaCache(File dir, long maxBytes) {
+        mEvictor = new PinnableCacheEvictor(maxBytes);
+        mCache = new SimpleCache(dir, mEvictor);
+    }
+
+    public Cache getCache() {
+        return mCache;
+    }
+
+    /**
+     * Sets the size cap. Shrinking it evicts the least recently used unpinned items right away.
+     */
+    public void setMaxBytes(long maxBytes) {
+        mEvictor.setMaxBytes(maxBytes);
+        synchronized (mCache) {
+            mEvictor.evict(mCache, 0);
+        }
+    }
+
+    public long getMaxBytes() {
+        return mEvictor.getMaxBytes();
+    }
+
+    /**
+     * @return bytes currently stored in the cache.
+     */
+    public long getCacheSpace() {
+        return mCache.getCacheSpace();
+    }
+
+    /**
+     * Protects every cached byte of {@code uri} from eviction until {@link #unpin(Uri)}.
+     */
+    public void pin(Uri uri) {
+        mEvictor.pin(getKey(uri));
+    }
+
+    public void unpin(Uri uri) {
+        mEvictor.unpin(getKey(uri));
+    }
+
+    public boolean isPinned(Uri uri) {
+        return mEvictor.isPinned(getKey(uri));
+    }
+
+    /**
+     * Wraps {@code upstream} so reads are served from the cache and misses are written to it.
+     */
+    public DataSource.Factory buildDataSourceFactory(DataSource.Factory upstream) {
+        return new CacheDataSourceFactory(mCache, upstream, CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR);
+    }
+
+    static String getKey(Uri uri) {
+        return uri.toString();
+    }
+
+    /**
+     * @return true for the remote URIs worth caching.
+     */
+    static boolean isCacheable(Uri uri) {
+        String scheme = uri.getScheme();
+        return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.exoplayer2.ext.okhttp.OkHttpDataSourceFactory;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.util.Util;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+
+/**
+ * Shared HTTP client of all media loads: players, {@link CacheProxyServer} and
+ * {@link MediaPrefetcher}.
+ * <p>
+ * One OkHttp connection pool keeps connections alive per host, so seeks, replays and the next
+ * clip from the same CDN skip the TCP and TLS handshake. Whether each request got a new or a
+ * pooled connection is counted per host.
+ */
+public class MediaHttpClient {
+
+    private static final String TAG = "MediaHttpClient";
+
+    /**
+     * Header understood by {@link android.media.MediaPlayer}, never sent to the server.
+     */
+    static final String HEADER_ALLOW_CROSS_DOMAIN_REDIRECT = "android-allow-cross-domain-redirect";
+
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_DURATION_MINUTES = 5;
+
+    private static MediaHttpClient sInstance;
+
+    private final OkHttpClient mClient;
+    private final String mUserAgent;
+    private final WeakHashMap<Connection, Boolean> mSeenConnections = new WeakHashMap<>();
+    // host -> {new connections, reused connections}
+    private final HashMap<String, int[]> mHostStats = new HashMap<>();
+
+    public static synchronized MediaHttpClient getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MediaHttpClient(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private MediaHttpClient(Context context) {
+        mUserAgent = Util.getUserAgent(context, context.getApplicationInfo().loadLabel(
+                context.getPackageManager()).toString());
+        mClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_MINUTES, TimeUnit.MINUTES))
+                .addNetworkInterceptor(mReuseInterceptor)
+                .build();
+    }
+
+    public OkHttpClient getClient() {
+        return mClient;
+    }
+
+    public String getUserAgent() {
+        return mUserAgent;
+    }
+
+    /**
+     * @param headers extra request headers, e.g. CDN auth tokens, or null.
+     * @param listener notified of transfers, typically a bandwidth meter, or null.
+     */
+    public HttpDataSource.Factory buildDataSourceFactory(Map<String, String> headers,
+                                                        TransferListener<? super DataSource> listener) {
+        OkHttpDataSourceFactory factory = new OkHttpDataSourceFactory(mClient, mUserAgent, listener);
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if (!HEADER_ALLOW_CROSS_DOMAIN_REDIRECT.equalsIgnoreCase(header.getKey())) {
+                    factory.getDefaultRequestProperties().set(header.getKey(), header.getValue());
+                }
+            }
+        }
+        return factory;
+    }
+
+    /**
+     * @return requests to {@code host} that had to open a new connection.
+     */
+    public synchronized int getNewConnectionCount(String host) {
+        int[] stats = mHostStats.get(host);
+        return stats != null ? stats[0] : 0;
+    }
+
+    /**
+     * @return requests to {@code host} served over a pooled connection.
+     */
+    public synchronized int getReusedConnectionCount(String host) {
+        int[] stats = mHostStats.get(host);
+        return stats != null ? stats[1] : 0;
+    }
+
+    /**
+     * @return share of the requests to {@code host} that reused a connection.
+     */
+    public synchronized float getConnectionReuseRatio(String host) {
+        int[] stats = mHostStats.get(host);
+        if (stats == null) {
+            return 0;
+        }
+        return (float) stats[1] / (stats[0] + stats[1]);
+    }
+
+    private synchronized void recordConnection(String host, Connection connection) {
+        boolean reused = mSeenConnections.put(connection, Boolean.TRUE) != null;
+        int[] stats = mHostStats.get(host);
+        if (stats == null) {
+            stats = new int[2];
+            mHostStats.put(host, stats);
+        }
+        stats[reused ? 1 : 0]++;
+        Log.d(TAG, (reused ? "reused" : "opened") + " connection to " + host
+                + ", new=" + stats[0] + " reused=" + stats[1]);
+    }
+
+    private final Interceptor mReuseInterceptor = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Connection connection = chain.connection();
+            if (connection != null) {
+                recordConnection(chain.request().url().host(), connection);
+            }
+            return chain.proceed(chain.request());
+        }
+    };
+}
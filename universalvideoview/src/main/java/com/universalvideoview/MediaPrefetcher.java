@@ -0,0 +1,285 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms {@link MediaCache} with the beginning of URIs that are likely to be played next, e.g.
+ * the next feed item, so a later {@code setVideoURI()} with caching enabled starts from disk.
+ * <p>
+ * Prefetches run on a background executor with a concurrency limit. Listener callbacks are
+ * delivered on the main thread; canceled prefetches don't call back. They run at
+ * {@link LoadScheduler#PRIORITY_PREFETCH} and pause while a player is refilling its buffer, and
+ * while {@link DataSaver} is active. Pass the headers the player will use, e.g. CDN auth tokens,
+ * or the prefetch may be refused or cache a different response.
+ */
+public class MediaPrefetcher {
+
+    private static final String TAG = "MediaPrefetcher";
+
+    public static final int DEFAULT_MAX_CONCURRENT = 2;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static MediaPrefetcher sInstance;
+
+    private final MediaHttpClient mHttpClient;
+    private final SharedBandwidthMeter mBandwidthMeter;
+    private final MediaCache mCache;
+    // for prefetches without headers
+    private final DataSource.Factory mDataSourceFactory;
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Map<Uri, Task> mTasks = new HashMap<>();
+
+    public static synchronized MediaPrefetcher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MediaPrefetcher(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private MediaPrefetcher(Context context) {
+        mHttpClient = MediaHttpClient.getInstance(context);
+        mBandwidthMeter = SharedBandwidthMeter.getInstance(context);
+        mCache = MediaCache.getInstance(context);
+        mDataSourceFactory = buildDataSourceFactory(null);
+        mExecutor = new ThreadPoolExecutor(DEFAULT_MAX_CONCURRENT, DEFAULT_MAX_CONCURRENT,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Sets how many URIs are downloaded at the same time.
+     */
+    public synchronized void setMaxConcurrentPrefetches(int maxConcurrent) {
+        maxConcurrent = Math.max(1, maxConcurrent);
+        if (maxConcurrent > mExecutor.getMaximumPoolSize()) {
+            mExecutor.setMaximumPoolSize(maxConcurrent);
+            mExecutor.setCorePoolSize(maxConcurrent);
+        } else {
+            mExecutor.setCorePoolSize(maxConcurrent);
+            mExecutor.setMaximumPoolSize(maxConcurrent);
+        }
+    }
+
+    /**
+     * Caches the first {@code bytes} bytes of {@code uri}. Already queued URIs are ignored.
+     */
+    public void prefetch(Uri uri, long bytes, Listener listener) {
+        prefetch(uri, null, bytes, listener);
+    }
+
+    /**
+     * Caches the first {@code bytes} bytes of {@code uri}, requested with {@code headers}.
+     * Already queued URIs are ignored.
+     *
+     * @param headers the headers for the request, or null.
+     */
+    public synchronized void prefetch(Uri uri, Map<String, String> headers, long bytes, Listener listener) {
+        if (!MediaCache.isCacheable(uri) || mTasks.containsKey(uri)) {
+            return;
+        }
+        Task task = new Task(uri, headers != null ? new HashMap<>(headers) : null, bytes, listener);
+        mTasks.put(uri, task);
+        mExecutor.execute(task);
+    }
+
+    /**
+     * Caches the first {@code bytes} bytes of each URI, in list order.
+     */
+    public void prefetch(List<Uri> uris, long bytes, Listener listener) {
+        prefetch(uris, null, bytes, listener);
+    }
+
+    /**
+     * Caches the first {@code bytes} bytes of each URI, in list order, requested with
+     * {@code headers}.
+     *
+     * @param headers the headers for the requests, or null.
+     */
+    public void prefetch(List<Uri> uris, Map<String, String> headers, long bytes, Listener listener) {
+        for (Uri uri : uris) {
+            prefetch(uri, headers, bytes, listener);
+        }
+    }
+
+    /**
+     * Caches roughly the first {@code durationMs} of {@code uri}, given its average bitrate.
+     */
+    public void prefetch(Uri uri, long durationMs, int bitrate, Listener listener) {
+        prefetch(uri, null, durationMs, bitrate, listener);
+    }
+
+    /**
+     * Caches roughly the first {@code durationMs} of {@code uri}, given its average bitrate,
+     * requested with {@code headers}.
+     *
+     * @param headers the headers for the request, or null.
+     */
+    public void prefetch(Uri uri, Map<String, String> headers, long durationMs, int bitrate,
+                         Listener listener) {
+        prefetch(uri, headers, durationMs * bitrate / 8000, listener);
+    }
+
+    public synchronized void cancel(Uri uri) {
+        Task task = mTasks.remove(uri);
+        if (task != null) {
+            task.cancel();
+        }
+    }
+
+    public synchronized void cancelAll() {
+        for (Task task : mTasks.values()) {
+            task.cancel();
+        }
+        mTasks.clear();
+    }
+
+    private DataSource.Factory buildDataSourceFactory(Map<String, String> headers) {
+        return mCache.buildDataSourceFactory(mHttpClient.buildDataSourceFactory(headers, mBandwidthMeter));
+    }
+
+    private synchronized boolean finish(Task task) {
+        if (mTasks.get(task.uri) == task) {
+            mTasks.remove(task.uri);
+            return true;
+        }
+        return false;
+    }
+
+    public interface Listener {
+        /**
+         * Called when the first {@code bytes} of {@code uri}, or the whole of a shorter file,
+         * are in the cache.
+         */
+        void onPrefetched(Uri uri, long bytes);
+
+        void onPrefetchFailed(Uri uri, IOException e);
+    }
+
+    private final class Task implements Runnable {
+        final Uri uri;
+        final Map<String, String> headers;
+        final long bytes;
+        final Listener listener;
+        // guards mThread, so cancel() can't interrupt the pool thread after the task has left it
+        private final Object mLock = new Object();
+        private volatile boolean mCanceled;
+        private Thread mThread;
+
+        Task(Uri uri, Map<String, String> headers, long bytes, Listener listener) {
+            this.uri = uri;
+            this.headers = headers;
+            this.bytes = bytes;
+            this.listener = listener;
+        }
+
+        void cancel() {
+            mExecutor.remove(this);
+            synchronized (mLock) {
+                mCanceled = true;
+                if (mThread != null) {
+                    // wakes the task if it's waiting for the scheduler
+                    mThread.interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            synchronized (mLock) {
+                if (mCanceled) {
+                    return;
+                }
+                mThread = Thread.currentThread();
+            }
+            LoadScheduler scheduler = LoadScheduler.getInstance();
+            String tag = uri.toString();
+            scheduler.add(LoadScheduler.PRIORITY_PREFETCH);
+            long cached = 0;
+            IOException error = null;
+            // unbounded, a range past the end of a short file would fail
+            DataSource dataSource = (headers != null ? buildDataSourceFactory(headers) : mDataSourceFactory)
+                    .createDataSource();
+            try {
+                scheduler.proceed(LoadScheduler.PRIORITY_PREFETCH, tag);
+                dataSource.open(new DataSpec(uri, 0, C.LENGTH_UNSET, MediaCache.getKey(uri)));
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while (!mCanceled && cached < bytes) {
+                    scheduler.proceed(LoadScheduler.PRIORITY_PREFETCH, tag);
+                    int read = dataSource.read(buffer, 0, (int) Math.min(buffer.length, bytes - cached));
+                    if (read == C.RESULT_END_OF_INPUT) {
+                        break;
+                    }
+                    cached += read;
+                }
+            } catch (IOException e) {
+                error = e;
+            } catch (InterruptedException e) {
+                // canceled while waiting
+            } finally {
+                scheduler.remove(LoadScheduler.PRIORITY_PREFETCH);
+                synchronized (mLock) {
+                    mThread = null;
+                    // don't leave the pool thread interrupted, no cancel() can interrupt it now
+                    Thread.interrupted();
+                }
+                try {
+                    dataSource.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            if (!finish(this) || mCanceled) {
+                return;
+            }
+            Log.d(TAG, "prefetched " + cached + " bytes of " + uri + " after waiting "
+                    + scheduler.getWaitTimeMs(tag) + "ms" + (error != null ? ", " + error : ""));
+            if (listener != null) {
+                final long result = cached;
+                final IOException failure = error;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (failure != null) {
+                            listener.onPrefetchFailed(uri, failure);
+                        } else {
+                            listener.onPrefetched(uri, result);
+                        }
+                    }
+                });
+            }
+        }
+    }
+}
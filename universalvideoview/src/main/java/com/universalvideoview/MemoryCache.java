@@ -0,0 +1,250 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide, byte-budgeted RAM cache of recently read media spans.
+ * <p>
+ * Spans are stored as fixed-size blocks keyed by cache key and block index, backed by pooled
+ * byte arrays, and evicted least recently used first. It sits in front of {@link MediaCache} and
+ * the network through {@link MemoryCacheDataSource}, so short looping clips and repeated seeks
+ * don't hit storage on every read. The cache drops to half its budget when memory runs low or
+ * the UI is hidden, and empties itself once the process is in the background.
+ */
+public class MemoryCache {
+
+    private static final String TAG = "MemoryCache";
+
+    public static final int BLOCK_SIZE = 64 * 1024;
+    public static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+    static final int RESULT_MISS = -2;
+
+    private static MemoryCache sInstance;
+
+    private final ByteArrayPool mPool = new ByteArrayPool(BLOCK_SIZE, 16);
+    private final LinkedHashMap<BlockKey, Block> mBlocks = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<String, Long> mContentLengths = new HashMap<>();
+    private long mMaxBytes = DEFAULT_MAX_BYTES;
+    private long mResidentBytes;
+    private long mHitBytes;
+    private long mMissBytes;
+
+    public static synchronized MemoryCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MemoryCache();
+            context.getApplicationContext().registerComponentCallbacks(sInstance.mComponentCallbacks);
+        }
+        return sInstance;
+    }
+
+    private MemoryCache() {
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize(mMaxBytes);
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * @return bytes held by cached blocks.
+     */
+    public synchronized long getResidentBytes() {
+        return mResidentBytes;
+    }
+
+    /**
+     * @return share of the bytes read through this cache that were served from memory.
+     */
+    public synchronized float getHitRatio() {
+        long total = mHitBytes + mMissBytes;
+        return total == 0 ? 0 : (float) mHitBytes / total;
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+        mContentLengths.clear();
+        mPool.clear();
+    }
+
+    /**
+     * Wraps {@code upstream}, typically a disk cache or network factory, with this cache.
+     */
+    public DataSource.Factory buildDataSourceFactory(final DataSource.Factory upstream) {
+        return new DataSource.Factory() {
+            @Override
+            public DataSource createDataSource() {
+                return new MemoryCacheDataSource(MemoryCache.this, upstream.createDataSource());
+            }
+        };
+    }
+
+    /**
+     * Copies cached bytes starting at {@code position}.
+     *
+     * @return the number of bytes copied, {@link C#RESULT_END_OF_INPUT} if {@code position} is
+     * the known end of the content, or {@link #RESULT_MISS} if the block isn't cached.
+     */
+    synchronized int read(String key, long position, byte[] target, int offset, int length) {
+        Block block = mBlocks.get(new BlockKey(key, position / BLOCK_SIZE));
+        int inBlock = (int) (position % BLOCK_SIZE);
+        if (block == null || (inBlock >= block.length && !block.endOfInput)) {
+            return RESULT_MISS;
+        }
+        if (inBlock >= block.length) {
+            return C.RESULT_END_OF_INPUT;
+        }
+        int count = Math.min(length, block.length - inBlock);
+        System.arraycopy(block.data, inBlock, target, offset, count);
+        mHitBytes += count;
+        return count;
+    }
+
+    /**
+     * Takes ownership of {@code data}, a pooled array, as the content of a block.
+     */
+    synchronized void put(String key, long blockIndex, byte[] data, int length, boolean endOfInput) {
+        BlockKey blockKey = new BlockKey(key, blockIndex);
+        if (mBlocks.containsKey(blockKey) || mMaxBytes < BLOCK_SIZE) {
+            mPool.release(data);
+            return;
+        }
+        mBlocks.put(blockKey, new Block(data, length, endOfInput));
+        mResidentBytes += data.length;
+        if (endOfInput) {
+            mContentLengths.put(key, blockIndex * BLOCK_SIZE + length);
+        }
+        trimToSize(mMaxBytes);
+    }
+
+    synchronized void recordMiss(int bytes) {
+        mMissBytes += bytes;
+    }
+
+    synchronized void setContentLength(String key, long length) {
+        mContentLengths.put(key, length);
+    }
+
+    /**
+     * @return the total content length of {@code key}, or {@link C#LENGTH_UNSET}.
+     */
+    synchronized long getContentLength(String key) {
+        Long length = mContentLengths.get(key);
+        return length != null ? length : C.LENGTH_UNSET;
+    }
+
+    byte[] acquireBuffer() {
+        return mPool.acquire();
+    }
+
+    void releaseBuffer(byte[] buffer) {
+        mPool.release(buffer);
+    }
+
+    private void trimToSize(long maxBytes) {
+        Iterator<Map.Entry<BlockKey, Block>> iterator = mBlocks.entrySet().iterator();
+        while (mResidentBytes > maxBytes && iterator.hasNext()) {
+            Block block = iterator.next().getValue();
+            iterator.remove();
+            mResidentBytes -= block.data.length;
+            mPool.release(block.data);
+        }
+    }
+
+    private final ComponentCallbacks2 mComponentCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            synchronized (MemoryCache.this) {
+                if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+                    // in the LRU list, or about to be killed for memory
+                    clear();
+                } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                    // running low or TRIM_MEMORY_UI_HIDDEN: keep half, the user may come straight
+                    // back to the same clip
+                    trimToSize(mMaxBytes / 2);
+                }
+                Log.d(TAG, "onTrimMemory(" + level + "), resident=" + mResidentBytes);
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+            clear();
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+            // do nothing.
+        }
+    };
+
+    private static final class BlockKey {
+        final String key;
+        final long index;
+
+        BlockKey(String key, long index) {
+            this.key = key;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey other = (BlockKey) o;
+            return index == other.index && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * key.hashCode() + (int) (index ^ (index >>> 32));
+        }
+    }
+
+    private static final class Block {
+        final byte[] data;
+        final int length;
+        final boolean endOfInput;
+
+        Block(byte[] data, int length, boolean endOfInput) {
+            this.data = data;
+            this.length = length;
+            this.endOfInput = endOfInput;
+        }
+    }
+}
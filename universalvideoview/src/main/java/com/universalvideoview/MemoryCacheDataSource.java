@@ -0,0 +1,185 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.IOException;
+
+/**
+ * {@link DataSource} that serves reads from {@link MemoryCache} and fills it from upstream.
+ * <p>
+ * Upstream is always opened at a block boundary so every byte read from it lands in a whole
+ * block; consecutive misses keep reading the same upstream connection.
+ */
+class MemoryCacheDataSource implements DataSource {
+
+    private static final int BLOCK_SIZE = MemoryCache.BLOCK_SIZE;
+
+    private final MemoryCache mCache;
+    private final DataSource mUpstream;
+
+    private DataSpec mDataSpec;
+    private Uri mUri;
+    private String mKey;
+    private long mPosition;
+    private long mBytesRemaining;
+
+    private boolean mUpstreamOpen;
+    private boolean mUpstreamBounded;
+    private byte[] mFillData;
+    private long mFillBlockIndex;
+    private int mFillLength;
+
+    MemoryCacheDataSource(MemoryCache cache, DataSource upstream) {
+        mCache = cache;
+        mUpstream = upstream;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        mDataSpec = dataSpec;
+        mUri = dataSpec.uri;
+        mKey = dataSpec.key != null ? dataSpec.key : dataSpec.uri.toString();
+        mPosition = dataSpec.position;
+        mBytesRemaining = dataSpec.length;
+        if (mBytesRemaining == C.LENGTH_UNSET) {
+            long contentLength = mCache.getContentLength(mKey);
+            if (contentLength != C.LENGTH_UNSET) {
+                mBytesRemaining = Math.max(0, contentLength - mPosition);
+            } else {
+                // resolve the length the way the upstream would
+                openUpstream(mPosition / BLOCK_SIZE);
+            }
+        }
+        return mBytesRemaining;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (readLength == 0) {
+            return 0;
+        }
+        if (mBytesRemaining == 0) {
+            return C.RESULT_END_OF_INPUT;
+        }
+        int length = mBytesRemaining == C.LENGTH_UNSET ? readLength
+                : (int) Math.min(readLength, mBytesRemaining);
+        int result = mCache.read(mKey, mPosition, buffer, offset, length);
+        if (result == MemoryCache.RESULT_MISS) {
+            result = readUpstream(buffer, offset, length);
+        }
+        if (result > 0) {
+            mPosition += result;
+            if (mBytesRemaining != C.LENGTH_UNSET) {
+                mBytesRemaining -= result;
+            }
+        } else if (result == C.RESULT_END_OF_INPUT) {
+            mBytesRemaining = 0;
+        }
+        return result;
+    }
+
+    @Override
+    public Uri getUri() {
+        return mUri;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeUpstream();
+    }
+
+    private int readUpstream(byte[] buffer, int offset, int length) throws IOException {
+        long blockIndex = mPosition / BLOCK_SIZE;
+        int inBlock = (int) (mPosition % BLOCK_SIZE);
+        if (!mUpstreamOpen || mFillData == null || mFillBlockIndex != blockIndex || mFillLength > inBlock) {
+            openUpstream(blockIndex);
+        }
+        // the bytes in front of the read position belong to the block too
+        while (mFillLength < inBlock) {
+            int read = mUpstream.read(mFillData, mFillLength, inBlock - mFillLength);
+            if (read == C.RESULT_END_OF_INPUT) {
+                finishBlock(true);
+                return C.RESULT_END_OF_INPUT;
+            }
+            mFillLength += read;
+        }
+        int read = mUpstream.read(mFillData, mFillLength, Math.min(length, BLOCK_SIZE - mFillLength));
+        if (read == C.RESULT_END_OF_INPUT) {
+            finishBlock(true);
+            return C.RESULT_END_OF_INPUT;
+        }
+        System.arraycopy(mFillData, mFillLength, buffer, offset, read);
+        mFillLength += read;
+        mCache.recordMiss(read);
+        if (mFillLength == BLOCK_SIZE) {
+            finishBlock(false);
+        }
+        return read;
+    }
+
+    private void openUpstream(long blockIndex) throws IOException {
+        closeUpstream();
+        long blockStart = blockIndex * BLOCK_SIZE;
+        long length = mBytesRemaining == C.LENGTH_UNSET ? C.LENGTH_UNSET
+                : mPosition + mBytesRemaining - blockStart;
+        long opened = mUpstream.open(new DataSpec(mUri, blockStart, length, mKey, mDataSpec.flags));
+        mUpstreamOpen = true;
+        mUpstreamBounded = length != C.LENGTH_UNSET;
+        if (!mUpstreamBounded && opened != C.LENGTH_UNSET) {
+            mCache.setContentLength(mKey, blockStart + opened);
+            if (mBytesRemaining == C.LENGTH_UNSET) {
+                mBytesRemaining = Math.max(0, blockStart + opened - mPosition);
+            }
+        }
+        mFillBlockIndex = blockIndex;
+        mFillLength = 0;
+        mFillData = mCache.acquireBuffer();
+    }
+
+    private void finishBlock(boolean endOfInput) {
+        // the end of a bounded request is not the end of the content
+        if (mFillLength == BLOCK_SIZE || (endOfInput && !mUpstreamBounded)) {
+            mCache.put(mKey, mFillBlockIndex, mFillData, mFillLength, endOfInput);
+        } else {
+            mCache.releaseBuffer(mFillData);
+        }
+        mFillData = null;
+        if (!endOfInput) {
+            mFillBlockIndex++;
+            mFillLength = 0;
+            mFillData = mCache.acquireBuffer();
+        }
+    }
+
+    private void closeUpstream() throws IOException {
+        if (mFillData != null) {
+            // a partially filled block is dropped
+            mCache.releaseBuffer(mFillData);
+            mFillData = null;
+        }
+        if (mUpstreamOpen) {
+            mUpstreamOpen = false;
+            mUpstream.close();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP {@link DataSource} that fetches the first {@code connections * chunkSize} bytes of each
+ * open as concurrent byte-range requests and hands them to the reader in order.
+ * <p>
+ * The first chunk is read straight from the connection that probes for range support, the other
+ * chunks are downloaded into buffers by background requests. The rest of the request is read
+ * over a single connection. Servers that don't answer with a {@code Content-Range} are read over
+ * one connection only.
+ */
+class ParallelRangeDataSource implements DataSource {
+
+    private static final String TAG = "ParallelRangeDataSource";
+
+    private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+    private final HttpDataSource.Factory mUpstreamFactory;
+    private final int mConnections;
+    private final int mChunkSize;
+
+    private DataSpec mDataSpec;
+    private HttpDataSource mUpstream;
+    private boolean mParallel;
+    private RangeBuffer[] mChunks;
+    private long mPosition;
+    private long mEnd;
+    private long mUpstreamEnd;
+    private long mWindowEnd;
+    private long mOpenTimeMs;
+
+    /**
+     * @param upstreamFactory creates the connections.
+     * @param connections     concurrent requests for the initial window.
+     * @param chunkSize       bytes per request.
+     */
+    static DataSource.Factory newFactory(final HttpDataSource.Factory upstreamFactory,
+                                         final int connections, final int chunkSize) {
+        return new DataSource.Factory() {
+            @Override
+            public DataSource createDataSource() {
+                return new ParallelRangeDataSource(upstreamFactory, connections, chunkSize);
+            }
+        };
+    }
+
+    ParallelRangeDataSource(HttpDataSource.Factory upstreamFactory, int connections, int chunkSize) {
+        mUpstreamFactory = upstreamFactory;
+        mConnections = connections;
+        mChunkSize = chunkSize;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        mDataSpec = dataSpec;
+        mPosition = dataSpec.position;
+        mOpenTimeMs = SystemClock.elapsedRealtime();
+        if (mConnections <= 1 || (dataSpec.length != C.LENGTH_UNSET && dataSpec.length <= mChunkSize)) {
+            return openSingle();
+        }
+        mUpstream = mUpstreamFactory.createDataSource();
+        mUpstream.open(new DataSpec(dataSpec.uri, mPosition, mChunkSize, dataSpec.key, dataSpec.flags));
+        long total = getTotalLength(mUpstream.getResponseHeaders());
+        if (total == C.LENGTH_UNSET) {
+            // no range support
+            Log.d(TAG, "no Content-Range from " + dataSpec.uri.getHost() + ", using one connection");
+            closeQuietly(mUpstream);
+            return openSingle();
+        }
+        mParallel = true;
+        mEnd = dataSpec.length != C.LENGTH_UNSET ? Math.min(total, mPosition + dataSpec.length) : total;
+        mUpstreamEnd = Math.min(mEnd, mPosition + mChunkSize);
+        mWindowEnd = Math.min(mEnd, mPosition + (long) mConnections * mChunkSize);
+        int count = (int) ((mWindowEnd - mUpstreamEnd + mChunkSize - 1) / mChunkSize);
+        mChunks = new RangeBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = mUpstreamEnd + (long) i * mChunkSize;
+            mChunks[i] = RangeBuffer.fetch(mUpstreamFactory, new DataSpec(dataSpec.uri, start,
+                    Math.min(mChunkSize, mWindowEnd - start), dataSpec.key, dataSpec.flags));
+        }
+        return mEnd - mPosition;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (!mParallel) {
+            return mUpstream.read(buffer, offset, readLength);
+        }
+        if (readLength == 0) {
+            return 0;
+        }
+        if (mPosition == mEnd) {
+            return C.RESULT_END_OF_INPUT;
+        }
+        int read;
+        if (mPosition < mUpstreamEnd) {
+            read = mUpstream.read(buffer, offset, (int) Math.min(readLength, mUpstreamEnd - mPosition));
+        } else if (mPosition < mWindowEnd) {
+            RangeBuffer chunk = mChunks[(int) ((mPosition - mChunks[0].start) / mChunkSize)];
+            read = chunk.read(mPosition, buffer, offset, (int) Math.min(readLength, mWindowEnd - mPosition));
+        } else {
+            if (mUpstreamEnd < mEnd) {
+                // the window is consumed, continue with one connection
+                logWindow();
+                closeQuietly(mUpstream);
+                mUpstream = mUpstreamFactory.createDataSource();
+                mUpstream.open(new DataSpec(mDataSpec.uri, mWindowEnd, mEnd - mWindowEnd,
+                        mDataSpec.key, mDataSpec.flags));
+                mUpstreamEnd = mEnd;
+            }
+            read = mUpstream.read(buffer, offset, (int) Math.min(readLength, mEnd - mPosition));
+        }
+        if (read == C.RESULT_END_OF_INPUT) {
+            throw new EOFException();
+        }
+        mPosition += read;
+        if (mPosition == mWindowEnd && mWindowEnd == mEnd) {
+            logWindow();
+        }
+        return read;
+    }
+
+    @Override
+    public Uri getUri() {
+        return mUpstream != null ? mUpstream.getUri() : mDataSpec.uri;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mChunks != null) {
+            for (RangeBuffer chunk : mChunks) {
+                chunk.cancel();
+            }
+            mChunks = null;
+        }
+        mParallel = false;
+        if (mUpstream != null) {
+            try {
+                mUpstream.close();
+            } finally {
+                mUpstream = null;
+            }
+        }
+    }
+
+    private long openSingle() throws IOException {
+        mParallel = false;
+        mUpstream = mUpstreamFactory.createDataSource();
+        return mUpstream.open(mDataSpec);
+    }
+
+    private void logWindow() {
+        long elapsedMs = Math.max(1, SystemClock.elapsedRealtime() - mOpenTimeMs);
+        long bytes = mWindowEnd - mDataSpec.position;
+        Log.d(TAG, "read " + bytes + " bytes over " + (mChunks.length + 1) + " connections in "
+                + elapsedMs + "ms, " + (bytes * 8 / elapsedMs) + "kbps");
+    }
+
+    /**
+     * @return the total length from the {@code Content-Range} header, or {@link C#LENGTH_UNSET}.
+     */
+    private static long getTotalLength(Map<String, List<String>> headers) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (!"Content-Range".equalsIgnoreCase(header.getKey()) || header.getValue().isEmpty()) {
+                continue;
+            }
+            Matcher matcher = CONTENT_RANGE_PATTERN.matcher(header.getValue().get(0).trim());
+            if (matcher.matches()) {
+                return Long.parseLong(matcher.group(3));
+            }
+        }
+        return C.LENGTH_UNSET;
+    }
+
+    private static void closeQuietly(DataSource dataSource) {
+        try {
+            dataSource.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
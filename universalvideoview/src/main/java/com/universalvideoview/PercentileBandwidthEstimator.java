@@ -0,0 +1,126 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+/**
+ * {@link BandwidthEstimator} over a ring buffer of the most recent samples. The estimate is the
+ * given percentile of the sample bitrates, weighted by bytes, so a burst of small fast transfers
+ * can't move it as much as a large one. A lower percentile gives a steadier, more conservative
+ * estimate on bursty networks.
+ * <p>
+ * Adding a sample costs O(capacity) and allocates nothing; reading the estimate is O(1).
+ */
+public class PercentileBandwidthEstimator implements BandwidthEstimator {
+
+    public static final int DEFAULT_CAPACITY = 32;
+    public static final float DEFAULT_PERCENTILE = 0.5f;
+
+    private final float mPercentile;
+    private final long[] mBytes;
+    private final float[] mBitrates;
+    // slots ordered by bitrate, the first mCount entries are valid
+    private final int[] mOrder;
+    private int mCount;
+    private int mNextSlot;
+    private long mTotalBytes;
+    private long mEstimate = NO_ESTIMATE;
+
+    public static Factory factory(final int capacity, final float percentile) {
+        return new Factory() {
+            @Override
+            public BandwidthEstimator createEstimator() {
+                return new PercentileBandwidthEstimator(capacity, percentile);
+            }
+        };
+    }
+
+    public PercentileBandwidthEstimator() {
+        this(DEFAULT_CAPACITY, DEFAULT_PERCENTILE);
+    }
+
+    /**
+     * @param capacity   number of recent samples kept.
+     * @param percentile the reported percentile, between 0 and 1.
+     */
+    public PercentileBandwidthEstimator(int capacity, float percentile) {
+        if (capacity <= 0 || percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("capacity=" + capacity + ", percentile=" + percentile);
+        }
+        mPercentile = percentile;
+        mBytes = new long[capacity];
+        mBitrates = new float[capacity];
+        mOrder = new int[capacity];
+    }
+
+    @Override
+    public void addSample(long bytes, long elapsedMs) {
+        if (bytes <= 0 || elapsedMs <= 0) {
+            return;
+        }
+        int slot = mNextSlot;
+        mNextSlot = (mNextSlot + 1) % mBytes.length;
+        if (mCount == mBytes.length) {
+            // evict the oldest sample, which lives in the slot being reused
+            mTotalBytes -= mBytes[slot];
+            removeFromOrder(slot);
+        }
+        mBytes[slot] = bytes;
+        mBitrates[slot] = bytes * 8000f / elapsedMs;
+        mTotalBytes += bytes;
+        insertIntoOrder(slot);
+        updateEstimate();
+    }
+
+    @Override
+    public long getBitrateEstimate() {
+        return mEstimate;
+    }
+
+    private void removeFromOrder(int slot) {
+        int index = 0;
+        while (mOrder[index] != slot) {
+            index++;
+        }
+        System.arraycopy(mOrder, index + 1, mOrder, index, mCount - index - 1);
+        mCount--;
+    }
+
+    private void insertIntoOrder(int slot) {
+        float bitrate = mBitrates[slot];
+        int index = mCount;
+        while (index > 0 && mBitrates[mOrder[index - 1]] > bitrate) {
+            mOrder[index] = mOrder[index - 1];
+            index--;
+        }
+        mOrder[index] = slot;
+        mCount++;
+    }
+
+    private void updateEstimate() {
+        long target = (long) (mTotalBytes * mPercentile);
+        long accumulated = 0;
+        for (int i = 0; i < mCount; i++) {
+            int slot = mOrder[i];
+            accumulated += mBytes[slot];
+            if (accumulated >= target) {
+                mEstimate = (long) mBitrates[slot];
+                return;
+            }
+        }
+        mEstimate = (long) mBitrates[mOrder[mCount - 1]];
+    }
+}
@@ -0,0 +1,141 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.util.Log;
+
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.CacheSpan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Least-recently-used {@link CacheEvictor} that never evicts spans of pinned keys.
+ * <p>
+ * The {@link CacheEvictor} callbacks run under the lock of the owning cache, {@link #evict} must
+ * be called holding that lock too.
+ */
+class PinnableCacheEvictor implements CacheEvictor, Comparator<CacheSpan> {
+
+    private static final String TAG = "PinnableCacheEvictor";
+
+    private final TreeSet<CacheSpan> mLeastRecentlyUsed = new TreeSet<>(this);
+    private final Set<String> mPinnedKeys = Collections.synchronizedSet(new HashSet<String>());
+    private volatile long mMaxBytes;
+    private long mCurrentSize;
+
+    PinnableCacheEvictor(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    void pin(String key) {
+        mPinnedKeys.add(key);
+    }
+
+    void unpin(String key) {
+        mPinnedKeys.remove(key);
+    }
+
+    boolean isPinned(String key) {
+        return mPinnedKeys.contains(key);
+    }
+
+    @Override
+    public void onCacheInitialized() {
+        // do nothing.
+    }
+
+    @Override
+    public void onStartFile(Cache cache, String key, long position, long maxLength) {
+        evict(cache, maxLength);
+    }
+
+    @Override
+    public void onSpanAdded(Cache cache, CacheSpan span) {
+        mLeastRecentlyUsed.add(span);
+        mCurrentSize += span.length;
+        evict(cache, 0);
+    }
+
+    @Override
+    public void onSpanRemoved(Cache cache, CacheSpan span) {
+        mLeastRecentlyUsed.remove(span);
+        mCurrentSize -= span.length;
+    }
+
+    @Override
+    public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+        onSpanRemoved(cache, oldSpan);
+        onSpanAdded(cache, newSpan);
+    }
+
+    @Override
+    public int compare(CacheSpan lhs, CacheSpan rhs) {
+        long lastAccessTimestampDelta = lhs.lastAccessTimestamp - rhs.lastAccessTimestamp;
+        if (lastAccessTimestampDelta == 0) {
+            // Use the standard compareTo method as a tie-break.
+            return lhs.compareTo(rhs);
+        }
+        return lhs.lastAccessTimestamp < rhs.lastAccessTimestamp ? -1 : 1;
+    }
+
+    /**
+     * Removes unpinned spans, oldest first, until {@code requiredSpace} more bytes fit.
+     */
+    void evict(Cache cache, long requiredSpace) {
+        long excess = mCurrentSize + requiredSpace - mMaxBytes;
+        if (excess <= 0) {
+            return;
+        }
+        // collect first, removeSpan() calls back into onSpanRemoved()
+        List<CacheSpan> victims = new ArrayList<>();
+        for (CacheSpan span : mLeastRecentlyUsed) {
+            if (excess <= 0) {
+                break;
+            }
+            if (!mPinnedKeys.contains(span.key)) {
+                victims.add(span);
+                excess -= span.length;
+            }
+        }
+        for (CacheSpan span : victims) {
+            try {
+                cache.removeSpan(span);
+            } catch (Cache.CacheException e) {
+                Log.w(TAG, "Failed to evict " + span.key, e);
+            }
+        }
+        if (excess > 0) {
+            Log.w(TAG, "cache over its limit by " + excess + " bytes, the rest is pinned");
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.Player;
+
+/**
+ * Rebuffer ratio and time-weighted video bitrate of one playback, for comparing adaptive track
+ * selections. Startup and buffering after a seek are not counted as rebuffering.
+ */
+class PlaybackStats {
+
+    private long mPlayingMs;
+    private long mRebufferingMs;
+    private int mRebufferCount;
+    private long mBitrateTimeSum;
+    private long mBitrateTimeMs;
+
+    private int mBitrate;
+    private boolean mStarted;
+    private boolean mSeeking;
+    private boolean mPlaying;
+    private boolean mRebuffering;
+    private long mSinceMs;
+
+    void reset() {
+        mPlayingMs = 0;
+        mRebufferingMs = 0;
+        mRebufferCount = 0;
+        mBitrateTimeSum = 0;
+        mBitrateTimeMs = 0;
+        mBitrate = 0;
+        mStarted = false;
+        mSeeking = false;
+        mPlaying = false;
+        mRebuffering = false;
+    }
+
+    void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+        update();
+        boolean ready = playbackState == Player.STATE_READY;
+        if (ready) {
+            mStarted = true;
+            mSeeking = false;
+        }
+        boolean rebuffering = playWhenReady && mStarted && !mSeeking && playbackState == Player.STATE_BUFFERING;
+        if (rebuffering && !mRebuffering) {
+            mRebufferCount++;
+        }
+        mRebuffering = rebuffering;
+        mPlaying = playWhenReady && ready;
+    }
+
+    void onSeek() {
+        update();
+        mSeeking = true;
+        mRebuffering = false;
+    }
+
+    void onVideoFormatChanged(Format format) {
+        update();
+        mBitrate = format != null && format.bitrate != Format.NO_VALUE ? format.bitrate : 0;
+    }
+
+    /**
+     * @return time spent rebuffering over time spent playing or rebuffering.
+     */
+    float getRebufferRatio() {
+        update();
+        long total = mPlayingMs + mRebufferingMs;
+        return total == 0 ? 0 : (float) mRebufferingMs / total;
+    }
+
+    int getRebufferCount() {
+        return mRebufferCount;
+    }
+
+    /**
+     * @return the average declared bitrate of the video played, weighted by play time, or 0.
+     */
+    int getAverageBitrate() {
+        update();
+        return mBitrateTimeMs == 0 ? 0 : (int) (mBitrateTimeSum / mBitrateTimeMs);
+    }
+
+    private void update() {
+        long nowMs = SystemClock.elapsedRealtime();
+        long elapsedMs = nowMs - mSinceMs;
+        mSinceMs = nowMs;
+        if (mPlaying) {
+            mPlayingMs += elapsedMs;
+            if (mBitrate > 0) {
+                mBitrateTimeSum += (long) mBitrate * elapsedMs;
+                mBitrateTimeMs += elapsedMs;
+            }
+        } else if (mRebuffering) {
+            mRebufferingMs += elapsedMs;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A byte range downloaded into memory in the background. The bytes can be read while the
+ * download is still running. A range without a length is read to the end of the stream, up to
+ * {@link #MAX_UNBOUNDED_SIZE} bytes.
+ */
+class RangeBuffer implements Runnable {
+
+    static final int MAX_UNBOUNDED_SIZE = 16 * 1024 * 1024;
+    private static final int INITIAL_UNBOUNDED_SIZE = 256 * 1024;
+
+    private static final ExecutorService sExecutor = Executors.newCachedThreadPool();
+    private static final ScheduledExecutorService sTimer = Executors.newSingleThreadScheduledExecutor();
+
+    final long start;
+    private final DataSource.Factory mUpstreamFactory;
+    private final DataSpec mDataSpec;
+    private final boolean mBounded;
+    private Future<?> mFuture;
+    private Future<?> mExpiry;
+    private byte[] mData;
+    private int mFilled;
+    private boolean mEnded;
+    private IOException mError;
+    private volatile boolean mCanceled;
+
+    /**
+     * Starts downloading {@code dataSpec}.
+     */
+    static RangeBuffer fetch(DataSource.Factory upstreamFactory, DataSpec dataSpec) {
+        RangeBuffer buffer = new RangeBuffer(upstreamFactory, dataSpec);
+        buffer.mFuture = sExecutor.submit(buffer);
+        return buffer;
+    }
+
+    private RangeBuffer(DataSource.Factory upstreamFactory, DataSpec dataSpec) {
+        mUpstreamFactory = upstreamFactory;
+        mDataSpec = dataSpec;
+        start = dataSpec.position;
+        mBounded = dataSpec.length != C.LENGTH_UNSET;
+        mData = new byte[mBounded ? (int) dataSpec.length : INITIAL_UNBOUNDED_SIZE];
+    }
+
+    /**
+     * @return the end of a range with a length.
+     */
+    long getEnd() {
+        return start + mDataSpec.length;
+    }
+
+    @Override
+    public void run() {
+        DataSource source = mUpstreamFactory.createDataSource();
+        try {
+            long length = source.open(mDataSpec);
+            boolean sized = mBounded;
+            if (!mBounded && length != C.LENGTH_UNSET && length <= MAX_UNBOUNDED_SIZE) {
+                sized = true;
+                synchronized (this) {
+                    mData = new byte[(int) length];
+                }
+            }
+            byte[] data = mData;
+            int filled = 0;
+            while (!mCanceled) {
+                if (filled == data.length) {
+                    if (sized) {
+                        break;
+                    }
+                    if (data.length == MAX_UNBOUNDED_SIZE) {
+                        throw new IOException("Range larger than " + MAX_UNBOUNDED_SIZE + " bytes");
+                    }
+                    synchronized (this) {
+                        mData = Arrays.copyOf(mData, Math.min(MAX_UNBOUNDED_SIZE, data.length * 2));
+                        data = mData;
+                    }
+                }
+                int read = source.read(data, filled, data.length - filled);
+                if (read == C.RESULT_END_OF_INPUT) {
+                    if (mBounded) {
+                        throw new EOFException();
+                    }
+                    break;
+                }
+                filled += read;
+                synchronized (this) {
+                    mFilled = filled;
+                    notifyAll();
+                }
+            }
+            synchronized (this) {
+                mEnded = true;
+                notifyAll();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                mError = e;
+                notifyAll();
+            }
+        } finally {
+            try {
+                source.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Copies bytes starting at absolute {@code position}, blocking until at least one is there.
+     *
+     * @return the number of bytes copied, or {@link C#RESULT_END_OF_INPUT} at the end of a range
+     * without a length.
+     * @throws IOException if the download failed before reaching {@code position}.
+     */
+    synchronized int read(long position, byte[] buffer, int offset, int length) throws IOException {
+        int inBuffer = (int) (position - start);
+        while (mFilled <= inBuffer && mError == null && !mEnded) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        if (mFilled <= inBuffer) {
+            if (mError != null) {
+                throw mError;
+            }
+            return C.RESULT_END_OF_INPUT;
+        }
+        int count = Math.min(length, mFilled - inBuffer);
+        System.arraycopy(mData, inBuffer, buffer, offset, count);
+        return count;
+    }
+
+    synchronized boolean hasFailed() {
+        return mError != null;
+    }
+
+    /**
+     * @return the length once a range without a length is read to the end, else
+     * {@link C#LENGTH_UNSET}.
+     */
+    synchronized long getLoadedLength() {
+        return mEnded && mError == null ? mFilled : C.LENGTH_UNSET;
+    }
+
+    /**
+     * @return the bytes downloaded so far.
+     */
+    synchronized int getFilledLength() {
+        return mFilled;
+    }
+
+    /**
+     * Cancels the download unless {@link #keep()} is called within {@code delayMs}, for a
+     * buffer whose reader may never come.
+     */
+    synchronized void expireAfter(long delayMs) {
+        keep();
+        mExpiry = sTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                cancel();
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Undoes {@link #expireAfter(long)}.
+     */
+    synchronized void keep() {
+        if (mExpiry != null) {
+            mExpiry.cancel(false);
+            mExpiry = null;
+        }
+    }
+
+    void cancel() {
+        mCanceled = true;
+        mFuture.cancel(true);
+        synchronized (this) {
+            // the download may never have started, don't leave readers waiting
+            if (!mEnded && mError == null) {
+                mError = new InterruptedIOException("Canceled");
+            }
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Hides network switches, e.g. from Wi-Fi to cellular, from the loader. When a request fails
+ * because the connection died with the old network, it waits for the new network and reopens
+ * the request at the byte it had reached, so the player keeps its buffer and only sees a slow
+ * read. Failures without a network change are passed on as usual.
+ */
+class ReconnectingDataSource implements DataSource {
+
+    private static final String TAG = "ReconnectingDataSource";
+
+    // the connection often dies before the change is broadcast
+    private static final long NETWORK_CHANGE_GRACE_MS = 2000;
+    private static final long RECONNECT_TIMEOUT_MS = 15000;
+    private static final int MAX_RECONNECTS = 3;
+
+    interface Listener {
+        /**
+         * Called on the loading thread after a request was resumed on a new network.
+         */
+        void onReconnected(Uri uri, long waitedMs);
+    }
+
+    private final DataSource mUpstream;
+    private final SharedBandwidthMeter mBandwidthMeter;
+    private final Listener mListener;
+
+    private DataSpec mDataSpec;
+    private long mBytesRead;
+    private boolean mOpen;
+
+    static DataSource.Factory newFactory(final DataSource.Factory upstreamFactory,
+                                         final SharedBandwidthMeter bandwidthMeter, final Listener listener) {
+        return new DataSource.Factory() {
+            @Override
+            public DataSource createDataSource() {
+                return new ReconnectingDataSource(upstreamFactory.createDataSource(), bandwidthMeter, listener);
+            }
+        };
+    }
+
+    private ReconnectingDataSource(DataSource upstream, SharedBandwidthMeter bandwidthMeter, Listener listener) {
+        mUpstream = upstream;
+        mBandwidthMeter = bandwidthMeter;
+        mListener = listener;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        mDataSpec = dataSpec;
+        mBytesRead = 0;
+        int reconnects = 0;
+        while (true) {
+            int generation = mBandwidthMeter.getNetworkGeneration();
+            try {
+                long length = mUpstream.open(dataSpec);
+                mOpen = true;
+                return length;
+            } catch (IOException e) {
+                closeUpstreamQuietly();
+                if (reconnects++ == MAX_RECONNECTS || !awaitReconnect(e, generation)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        int reconnects = 0;
+        while (true) {
+            int generation = mBandwidthMeter.getNetworkGeneration();
+            try {
+                if (!mOpen) {
+                    reopen();
+                }
+                int read = mUpstream.read(buffer, offset, readLength);
+                if (read > 0) {
+                    mBytesRead += read;
+                }
+                return read;
+            } catch (IOException e) {
+                closeUpstreamQuietly();
+                if (reconnects++ == MAX_RECONNECTS || !awaitReconnect(e, generation)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public Uri getUri() {
+        return mUpstream.getUri();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mDataSpec = null;
+        if (mOpen) {
+            mOpen = false;
+            mUpstream.close();
+        }
+    }
+
+    private void reopen() throws IOException {
+        long length = mDataSpec.length == C.LENGTH_UNSET ? C.LENGTH_UNSET : mDataSpec.length - mBytesRead;
+        DataSpec dataSpec = new DataSpec(mDataSpec.uri, mDataSpec.postBody,
+                mDataSpec.absoluteStreamPosition + mBytesRead, mDataSpec.position + mBytesRead,
+                length, mDataSpec.key, mDataSpec.flags);
+        mUpstream.open(dataSpec);
+        mOpen = true;
+    }
+
+    /**
+     * Waits for a new network if {@code e} looks like the connection died with the network
+     * that was current at {@code generation}.
+     *
+     * @return whether the request should be retried.
+     */
+    private boolean awaitReconnect(IOException e, int generation) throws IOException {
+        if (!(e instanceof HttpDataSource.HttpDataSourceException)
+                || e instanceof HttpDataSource.InvalidResponseCodeException
+                || e.getCause() instanceof InterruptedIOException) {
+            return false;
+        }
+        long startMs = SystemClock.elapsedRealtime();
+        try {
+            if (!mBandwidthMeter.awaitNetworkChange(generation, NETWORK_CHANGE_GRACE_MS)
+                    || !mBandwidthMeter.awaitConnected(RECONNECT_TIMEOUT_MS)) {
+                return false;
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        long waitedMs = SystemClock.elapsedRealtime() - startMs;
+        Log.d(TAG, "network changed, resuming " + mDataSpec.uri + " at byte "
+                + (mDataSpec.position + mBytesRead) + " after " + waitedMs + "ms");
+        if (mListener != null) {
+            mListener.onReconnected(mDataSpec.uri, waitedMs);
+        }
+        return true;
+    }
+
+    private void closeUpstreamQuietly() {
+        mOpen = false;
+        try {
+            mUpstream.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
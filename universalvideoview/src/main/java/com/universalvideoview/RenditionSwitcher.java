@@ -0,0 +1,322 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.PlaybackParameters;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Switches between progressive renditions of the same video as the bandwidth estimate changes.
+ * <p>
+ * To switch, a second player is borrowed from {@link ExoPlayerPool}, prepared with the new
+ * rendition and paused on an offscreen surface {@link #SWITCH_LEAD_MS} ahead of playback, so
+ * its first frame is already decoded. When playback reaches that position the {@link Host}
+ * hands it the view's surface and returns the old player. On API 23+ the decoder moves to the
+ * new surface without restarting. Used on the main thread.
+ */
+class RenditionSwitcher {
+
+    private static final String TAG = "RenditionSwitcher";
+
+    static final long SWITCH_LEAD_MS = 4000;
+    private static final long CHECK_INTERVAL_MS = 2000;
+    private static final long MIN_SWITCH_INTERVAL_MS = 10000;
+    private static final long SWITCH_TOLERANCE_MS = 15;
+    private static final float BANDWIDTH_FRACTION = 0.75f;
+    private static final long DEFAULT_INITIAL_BITRATE = 800000;
+
+    interface Host {
+        MediaSource buildRenditionSource(Uri uri);
+
+        /**
+         * Makes {@code standby}, paused at the switch position and muted, the player of the view.
+         */
+        void onSwitch(ExoPlayerPool.Entry standby, UniversalExoPlayer.Rendition rendition);
+    }
+
+    private final Context mContext;
+    private final Host mHost;
+    private final Handler mHandler = new Handler();
+    private List<UniversalExoPlayer.Rendition> mRenditions;
+    private int mIndex;
+    private SimpleExoPlayer mPlayer;
+    private ExoPlayerPool.Config mConfig;
+    private long mLastSwitchMs;
+    private int mSwitchCount;
+
+    private ExoPlayerPool.Entry mStandby;
+    private int mStandbyIndex;
+    private long mSwitchPositionMs;
+    private boolean mStandbyReady;
+    private SurfaceTexture mStandbyTexture;
+    private Surface mStandbySurface;
+
+    RenditionSwitcher(Context context, Host host) {
+        mContext = context;
+        mHost = host;
+    }
+
+    /**
+     * Sorts the ladder by decreasing bitrate.
+     *
+     * @return the sorted copy.
+     */
+    static List<UniversalExoPlayer.Rendition> sort(List<UniversalExoPlayer.Rendition> renditions) {
+        List<UniversalExoPlayer.Rendition> sorted = new ArrayList<>(renditions);
+        Collections.sort(sorted, new Comparator<UniversalExoPlayer.Rendition>() {
+            @Override
+            public int compare(UniversalExoPlayer.Rendition a, UniversalExoPlayer.Rendition b) {
+                return a.bitrate < b.bitrate ? 1 : (a.bitrate == b.bitrate ? 0 : -1);
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * @return the index of the best rendition of a sorted ladder for the current bandwidth
+     * estimate and {@link DataSaver} cap.
+     */
+    int selectIndex(List<UniversalExoPlayer.Rendition> renditions) {
+        long estimate = SharedBandwidthMeter.getInstance(mContext).getBitrateEstimate();
+        long effectiveBitrate = estimate == BandwidthMeter.NO_ESTIMATE
+                ? DEFAULT_INITIAL_BITRATE : (long) (estimate * BANDWIDTH_FRACTION);
+        DataSaver dataSaver = DataSaver.getInstance(mContext);
+        if (dataSaver.isActive()) {
+            effectiveBitrate = Math.min(effectiveBitrate, dataSaver.getMaxBitrate());
+        }
+        for (int i = 0; i < renditions.size(); i++) {
+            if (renditions.get(i).bitrate <= effectiveBitrate) {
+                return i;
+            }
+        }
+        return renditions.size() - 1;
+    }
+
+    /**
+     * @param renditions a sorted ladder, or null to play a single URI.
+     * @param index      the rendition being played.
+     */
+    void setRenditions(List<UniversalExoPlayer.Rendition> renditions, int index) {
+        cancelStandby();
+        mRenditions = renditions;
+        mIndex = index;
+        mLastSwitchMs = SystemClock.elapsedRealtime();
+        schedule();
+    }
+
+    int getIndex() {
+        return mIndex;
+    }
+
+    int getSwitchCount() {
+        return mSwitchCount;
+    }
+
+    void attach(SimpleExoPlayer player, ExoPlayerPool.Config config) {
+        mPlayer = player;
+        mConfig = config;
+        schedule();
+    }
+
+    void detach() {
+        cancelStandby();
+        mHandler.removeCallbacks(mCheckRunnable);
+        mPlayer = null;
+    }
+
+    void onPositionDiscontinuity(int reason) {
+        if (reason == Player.DISCONTINUITY_REASON_SEEK && mStandby != null) {
+            Log.d(TAG, "seek, dropping the prepared switch");
+            cancelStandby();
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        mHandler.removeCallbacks(mCheckRunnable);
+        if (mPlayer != null && mRenditions != null && mRenditions.size() > 1) {
+            mHandler.postDelayed(mCheckRunnable, CHECK_INTERVAL_MS);
+        }
+    }
+
+    private final Runnable mCheckRunnable = new Runnable() {
+        @Override
+        public void run() {
+            schedule();
+            if (mStandby != null || SystemClock.elapsedRealtime() - mLastSwitchMs < MIN_SWITCH_INTERVAL_MS
+                    || !mPlayer.getPlayWhenReady() || mPlayer.getPlaybackState() != Player.STATE_READY) {
+                return;
+            }
+            int index = selectIndex(mRenditions);
+            long durationMs = mPlayer.getDuration();
+            long switchPositionMs = mPlayer.getCurrentPosition() + SWITCH_LEAD_MS;
+            if (index == mIndex || durationMs == C.TIME_UNSET || switchPositionMs + SWITCH_LEAD_MS > durationMs) {
+                return;
+            }
+            startStandby(index, switchPositionMs);
+        }
+    };
+
+    private void startStandby(int index, long switchPositionMs) {
+        UniversalExoPlayer.Rendition rendition = mRenditions.get(index);
+        Log.d(TAG, "preparing " + rendition.bitrate / 1000 + " kbps rendition at " + switchPositionMs + "ms");
+        mStandby = ExoPlayerPool.getInstance().acquire(mContext, mConfig);
+        mStandbyIndex = index;
+        mSwitchPositionMs = switchPositionMs;
+        mStandbyReady = false;
+        // No GL context is needed: updateTexImage() is never called, the texture only gives the
+        // decoder somewhere to render the switch frame. Nothing consumes that frame either, so
+        // each standby gets a new texture rather than a queue still holding the last one's.
+        mStandbyTexture = new SurfaceTexture(0);
+        mStandbySurface = new Surface(mStandbyTexture);
+        SimpleExoPlayer standby = mStandby.player;
+        standby.setVolume(0f);
+        standby.setVideoSurface(mStandbySurface);
+        standby.addListener(mStandbyListener);
+        standby.setPlayWhenReady(false);
+        standby.prepare(mHost.buildRenditionSource(rendition.uri));
+        standby.seekTo(switchPositionMs);
+    }
+
+    private void cancelStandby() {
+        mHandler.removeCallbacks(mSwitchRunnable);
+        if (mStandby != null) {
+            mStandby.player.removeListener(mStandbyListener);
+            ExoPlayerPool.getInstance().release(mStandby);
+            mStandby = null;
+            // don't retry right away
+            mLastSwitchMs = SystemClock.elapsedRealtime();
+        }
+        releaseStandbySurface();
+    }
+
+    private void releaseStandbySurface() {
+        if (mStandbySurface != null) {
+            mStandbySurface.release();
+            mStandbyTexture.release();
+            mStandbySurface = null;
+            mStandbyTexture = null;
+        }
+    }
+
+    private final Runnable mSwitchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mStandby == null || mPlayer == null) {
+                return;
+            }
+            long remainingMs = mSwitchPositionMs - mPlayer.getCurrentPosition();
+            if (remainingMs < -SWITCH_TOLERANCE_MS) {
+                Log.d(TAG, "missed the switch position by " + -remainingMs + "ms");
+                cancelStandby();
+                return;
+            }
+            if (remainingMs > SWITCH_TOLERANCE_MS) {
+                boolean playing = mPlayer.getPlayWhenReady() && mPlayer.getPlaybackState() == Player.STATE_READY;
+                mHandler.postDelayed(this, playing ? remainingMs - SWITCH_TOLERANCE_MS : CHECK_INTERVAL_MS);
+                return;
+            }
+            ExoPlayerPool.Entry standby = mStandby;
+            UniversalExoPlayer.Rendition rendition = mRenditions.get(mStandbyIndex);
+            Log.d(TAG, "switching from " + mRenditions.get(mIndex).bitrate / 1000 + " to "
+                    + rendition.bitrate / 1000 + " kbps at " + mSwitchPositionMs + "ms");
+            standby.player.removeListener(mStandbyListener);
+            mStandby = null;
+            mIndex = mStandbyIndex;
+            mSwitchCount++;
+            mLastSwitchMs = SystemClock.elapsedRealtime();
+            // kept until the host has moved the standby to the view's surface
+            Surface surface = mStandbySurface;
+            SurfaceTexture texture = mStandbyTexture;
+            mStandbySurface = null;
+            mStandbyTexture = null;
+            // the host detaches this switcher from the old player and attaches it to the new one
+            mHost.onSwitch(standby, rendition);
+            surface.release();
+            texture.release();
+        }
+    };
+
+    private final Player.EventListener mStandbyListener = new Player.EventListener() {
+        @Override
+        public void onTimelineChanged(Timeline timeline, Object manifest) {
+        }
+
+        @Override
+        public void onTracksChanged(TrackGroupArray trackGroups, TrackSelectionArray trackSelections) {
+        }
+
+        @Override
+        public void onLoadingChanged(boolean isLoading) {
+        }
+
+        @Override
+        public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+            if (playbackState == Player.STATE_READY && !mStandbyReady) {
+                mStandbyReady = true;
+                mHandler.post(mSwitchRunnable);
+            }
+        }
+
+        @Override
+        public void onRepeatModeChanged(int repeatMode) {
+        }
+
+        @Override
+        public void onShuffleModeEnabledChanged(boolean shuffleModeEnabled) {
+        }
+
+        @Override
+        public void onPlayerError(ExoPlaybackException error) {
+            Log.w(TAG, "rendition failed to prepare", error);
+            cancelStandby();
+        }
+
+        @Override
+        public void onPositionDiscontinuity(int reason) {
+        }
+
+        @Override
+        public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
+        }
+
+        @Override
+        public void onSeekProcessed() {
+        }
+    };
+}
@@ -0,0 +1,255 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide {@link BandwidthMeter} shared by all players, their data sources and the
+ * background loaders.
+ * <p>
+ * Estimates are kept per network type and per host, and persisted, so the first track of a
+ * session is chosen from the throughput last seen on the same network and CDN instead of a
+ * conservative default. {@link #getBitrateEstimate()} answers for the network and host of the
+ * latest transfer, falling back to the network-wide estimate for a new host. How samples become
+ * an estimate is up to the {@link BandwidthEstimator.Factory}, a byte-weighted median of recent
+ * samples by default.
+ */
+public class SharedBandwidthMeter implements BandwidthMeter, TransferListener<Object> {
+
+    private static final String TAG = "SharedBandwidthMeter";
+
+    private static final String PREFS_NAME = "uvv_bandwidth";
+    private static final String ANY_HOST = "*";
+    private static final String NETWORK_NONE = "NONE";
+    private static final int MIN_SAMPLE_MS = 2;
+    private static final long PERSIST_INTERVAL_MS = 10000;
+
+    private static SharedBandwidthMeter sInstance;
+
+    private final ConnectivityManager mConnectivityManager;
+    private final SharedPreferences mPrefs;
+    // "<network type>/<host>" -> live samples
+    private final HashMap<String, BandwidthEstimator> mSamples = new HashMap<>();
+    // "<network type>/<host>" -> estimate restored from the previous sessions
+    private final HashMap<String, Long> mPersisted = new HashMap<>();
+    // network transfers in progress
+    private final IdentityHashMap<Object, Boolean> mActiveSources = new IdentityHashMap<>();
+
+    private BandwidthEstimator.Factory mEstimatorFactory = PercentileBandwidthEstimator.factory(
+            PercentileBandwidthEstimator.DEFAULT_CAPACITY, PercentileBandwidthEstimator.DEFAULT_PERCENTILE);
+    private String mNetworkType;
+    // incremented on every network change
+    private int mNetworkGeneration;
+    private String mHost = ANY_HOST;
+    private long mSampleStartMs;
+    private long mSampleBytes;
+    private long mLastPersistMs;
+
+    public static synchronized SharedBandwidthMeter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SharedBandwidthMeter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SharedBandwidthMeter(Context context) {
+        mConnectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        for (Map.Entry<String, ?> entry : mPrefs.getAll().entrySet()) {
+            if (entry.getValue() instanceof Long) {
+                mPersisted.put(entry.getKey(), (Long) entry.getValue());
+            }
+        }
+        mNetworkType = getNetworkType();
+        context.registerReceiver(mConnectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        Log.d(TAG, "restored " + mPersisted.size() + " estimates, network " + mNetworkType);
+    }
+
+    /**
+     * Sets how transfer samples are turned into estimates, e.g.
+     * {@link PercentileBandwidthEstimator#factory(int, float)} with a lower percentile for a more
+     * conservative estimate. Drops the live samples; persisted estimates are kept until new
+     * samples arrive.
+     */
+    public synchronized void setEstimatorFactory(BandwidthEstimator.Factory estimatorFactory) {
+        mEstimatorFactory = estimatorFactory;
+        mSamples.clear();
+    }
+
+    @Override
+    public synchronized long getBitrateEstimate() {
+        long estimate = getEstimate(mNetworkType + "/" + mHost);
+        return estimate != NO_ESTIMATE ? estimate : getEstimate(mNetworkType + "/" + ANY_HOST);
+    }
+
+    /**
+     * @return the estimate for {@code host} on the current network, or {@link #NO_ESTIMATE}.
+     */
+    public synchronized long getBitrateEstimate(String host) {
+        return getEstimate(mNetworkType + "/" + host);
+    }
+
+    /**
+     * @return the current network, e.g. {@code WIFI} or {@code MOBILE:LTE}, {@code NONE} offline.
+     */
+    synchronized String getCurrentNetworkType() {
+        return mNetworkType;
+    }
+
+    synchronized int getNetworkGeneration() {
+        return mNetworkGeneration;
+    }
+
+    /**
+     * Blocks until the network changes after {@code generation}, or {@code timeoutMs} passes.
+     *
+     * @return whether it changed.
+     */
+    synchronized boolean awaitNetworkChange(int generation, long timeoutMs) throws InterruptedException {
+        long deadlineMs = SystemClock.elapsedRealtime() + timeoutMs;
+        long remainingMs = timeoutMs;
+        while (mNetworkGeneration == generation && remainingMs > 0) {
+            wait(remainingMs);
+            remainingMs = deadlineMs - SystemClock.elapsedRealtime();
+        }
+        return mNetworkGeneration != generation;
+    }
+
+    /**
+     * Blocks until a network is connected, or {@code timeoutMs} passes.
+     *
+     * @return whether one is.
+     */
+    synchronized boolean awaitConnected(long timeoutMs) throws InterruptedException {
+        long deadlineMs = SystemClock.elapsedRealtime() + timeoutMs;
+        long remainingMs = timeoutMs;
+        while (NETWORK_NONE.equals(mNetworkType) && remainingMs > 0) {
+            wait(remainingMs);
+            remainingMs = deadlineMs - SystemClock.elapsedRealtime();
+        }
+        return !NETWORK_NONE.equals(mNetworkType);
+    }
+
+    @Override
+    public synchronized void onTransferStart(Object source, DataSpec dataSpec) {
+        String host = dataSpec.uri.getHost();
+        if (host == null) {
+            // local files say nothing about the network
+            return;
+        }
+        if (mActiveSources.isEmpty()) {
+            mSampleStartMs = SystemClock.elapsedRealtime();
+        }
+        mHost = host;
+        mActiveSources.put(source, Boolean.TRUE);
+    }
+
+    @Override
+    public synchronized void onBytesTransferred(Object source, int bytesTransferred) {
+        if (mActiveSources.containsKey(source)) {
+            mSampleBytes += bytesTransferred;
+        }
+    }
+
+    @Override
+    public synchronized void onTransferEnd(Object source) {
+        if (mActiveSources.remove(source) == null) {
+            return;
+        }
+        long nowMs = SystemClock.elapsedRealtime();
+        int elapsedMs = (int) (nowMs - mSampleStartMs);
+        if (elapsedMs >= MIN_SAMPLE_MS && mSampleBytes > 0) {
+            addSample(mNetworkType + "/" + mHost, mSampleBytes, elapsedMs);
+            addSample(mNetworkType + "/" + ANY_HOST, mSampleBytes, elapsedMs);
+            if (nowMs - mLastPersistMs >= PERSIST_INTERVAL_MS) {
+                persist();
+                mLastPersistMs = nowMs;
+            }
+        }
+        mSampleStartMs = nowMs;
+        mSampleBytes = 0;
+    }
+
+    private void addSample(String key, long bytes, long elapsedMs) {
+        BandwidthEstimator samples = mSamples.get(key);
+        if (samples == null) {
+            samples = mEstimatorFactory.createEstimator();
+            mSamples.put(key, samples);
+        }
+        samples.addSample(bytes, elapsedMs);
+    }
+
+    private long getEstimate(String key) {
+        BandwidthEstimator samples = mSamples.get(key);
+        if (samples != null && samples.getBitrateEstimate() != NO_ESTIMATE) {
+            return samples.getBitrateEstimate();
+        }
+        Long persisted = mPersisted.get(key);
+        return persisted != null ? persisted : NO_ESTIMATE;
+    }
+
+    private void persist() {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (String key : mSamples.keySet()) {
+            editor.putLong(key, getEstimate(key));
+        }
+        editor.apply();
+    }
+
+    private final BroadcastReceiver mConnectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String networkType = getNetworkType();
+            synchronized (SharedBandwidthMeter.this) {
+                if (!networkType.equals(mNetworkType)) {
+                    Log.d(TAG, "network changed to " + networkType);
+                    mNetworkType = networkType;
+                    mNetworkGeneration++;
+                    SharedBandwidthMeter.this.notifyAll();
+                }
+            }
+        }
+    };
+
+    private String getNetworkType() {
+        NetworkInfo info = mConnectivityManager != null ? mConnectivityManager.getActiveNetworkInfo() : null;
+        if (info == null || !info.isConnected()) {
+            return NETWORK_NONE;
+        }
+        if (info.getType() == ConnectivityManager.TYPE_MOBILE) {
+            return info.getTypeName() + ":" + info.getSubtypeName();
+        }
+        return info.getTypeName();
+    }
+}
@@ -25,38 +25,46 @@ import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
+import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.ViewGroup;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ExoPlaybackException;
-import com.google.android.exoplayer2.ExoPlayerFactory;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.ParserException;
 import com.google.android.exoplayer2.PlaybackParameters;
 import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.exoplayer2.Timeline;
-import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
-import com.google.android.exoplayer2.extractor.ExtractorsFactory;
+import com.google.android.exoplayer2.decoder.DecoderCounters;
 import com.google.android.exoplayer2.source.ExtractorMediaSource;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.TrackGroupArray;
-import com.google.android.exoplayer2.trackselection.AdaptiveTrackSelection;
-import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
-import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.source.dash.DashMediaSource;
+import com.google.android.exoplayer2.source.dash.DefaultDashChunkSource;
+import com.google.android.exoplayer2.source.hls.HlsMediaSource;
+import com.google.android.exoplayer2.source.smoothstreaming.DefaultSsChunkSource;
+import com.google.android.exoplayer2.source.smoothstreaming.SsMediaSource;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
-import com.google.android.exoplayer2.trackselection.TrackSelector;
-import com.google.android.exoplayer2.upstream.BandwidthMeter;
 import com.google.android.exoplayer2.upstream.DataSource;
-import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
 import com.google.android.exoplayer2.util.Util;
+import com.google.android.exoplayer2.video.VideoRendererEventListener;
 
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 
@@ -65,6 +73,10 @@ public class UniversalExoPlayer extends SurfaceView
     private String TAG = "UniversalVideoView";
     // settable by the client
     private Uri mUri;
+    private Map<String, String> mHeaders;
+    private String mMimeType;
+    private boolean mFormatHinted;
+    private boolean mFormatHintFailed;
     private String mUrl;
 
     private AudioManager mAudioManager;
@@ -78,6 +90,16 @@ public class UniversalExoPlayer extends SurfaceView
     private static final int STATE_PAUSED = 4;
     private static final int STATE_PLAYBACK_COMPLETED = 5;
 
+    public static final int DEFAULT_PARALLEL_CHUNK_SIZE = 512 * 1024;
+    public static final float DEFAULT_VIEWPORT_QUALITY = 1f;
+    // 网络切换时前几次重试可能落在断网期间, 比默认多给几次
+    private static final int MIN_LOADABLE_RETRY_COUNT = 6;
+
+    public static final String MIME_TYPE_HLS = "application/vnd.apple.mpegurl";
+    public static final String MIME_TYPE_HLS_LEGACY = "application/x-mpegurl";
+    public static final String MIME_TYPE_DASH = "application/dash+xml";
+    public static final String MIME_TYPE_SS = "application/vnd.ms-sstr+xml";
+
     // mCurrentState is a VideoView object's current state.
     // mTargetState is the state that a method caller intends to reach.
     // For instance, regardless the VideoView object's current state,
@@ -89,6 +111,75 @@ public class UniversalExoPlayer extends SurfaceView
     // All the stuff we need for playing and showing a video
     private SurfaceHolder mSurfaceHolder = null;
     private SimpleExoPlayer mMediaPlayer = null;
+    private ExoPlayerPool.Entry mPlayerEntry;
+    private ExoPlayerPool.Config mPlayerConfig = ExoPlayerPool.Config.DEFAULT;
+    private boolean mSourceSwapEnabled = true;
+    private long mKeepAliveTimeoutMs = 0;
+    private boolean mKeptAlive;
+    private boolean mResumeOnReattach;
+    private boolean mPlayOnSurfaceCreated;
+    private long mPreloadTargetMs = 0;
+    private boolean mPreloading;
+    private boolean mPreloadNotified;
+    private OnPreloadListener mOnPreloadListener;
+    private OnLiveOffsetListener mOnLiveOffsetListener;
+    private final LiveLatencyController mLiveLatencyController = new LiveLatencyController(
+            new LiveLatencyController.Listener() {
+                @Override
+                public void onLiveOffset(long offsetMs, float speed) {
+                    if (mOnLiveOffsetListener != null) {
+                        mOnLiveOffsetListener.onLiveOffsetChanged(UniversalExoPlayer.this, offsetMs, speed);
+                    }
+                }
+            });
+    private boolean mCacheEnabled;
+    private boolean mMemoryCacheEnabled;
+    private boolean mFastStartEnabled = true;
+    private int mParallelConnections = 1;
+    private int mHlsSegmentsInFlight = 1;
+    private HlsSegmentPrefetcher mHlsSegmentPrefetcher;
+    private int mParallelChunkSize = DEFAULT_PARALLEL_CHUNK_SIZE;
+    private float mViewportQuality = DEFAULT_VIEWPORT_QUALITY;
+    private boolean mFullscreen;
+    private final Handler mHandler = new Handler();
+    private final PlaybackStats mPlaybackStats = new PlaybackStats();
+    private final RenditionSwitcher mRenditionSwitcher = new RenditionSwitcher(getContext(),
+            new RenditionSwitcher.Host() {
+                @Override
+                public MediaSource buildRenditionSource(Uri uri) {
+                    return new ExtractorMediaSource(uri, buildDataSourceFactory(C.TYPE_OTHER),
+                            new HintedExtractorsFactory(mMimeType, uri), MIN_LOADABLE_RETRY_COUNT, null, null, null);
+                }
+
+                @Override
+                public void onSwitch(ExoPlayerPool.Entry standby, Rendition rendition) {
+                    switchPlayer(standby, rendition);
+                }
+            });
+    private final DataUsageCounter mDataUsage;
+    private int mReconnectCount;
+    private long mReconnectWaitMs;
+    private final ReconnectingDataSource.Listener mReconnectListener = new ReconnectingDataSource.Listener() {
+        @Override
+        public void onReconnected(Uri uri, long waitedMs) {
+            synchronized (UniversalExoPlayer.this) {
+                mReconnectCount++;
+                mReconnectWaitMs += waitedMs;
+            }
+        }
+    };
+    private final DataSaver.Listener mDataSaverListener = new DataSaver.Listener() {
+        @Override
+        public void onDataSaverChanged(boolean active) {
+            applyDataSaver();
+        }
+    };
+    private boolean mOpenedBySwap;
+    // startup time statistics, index 0 for full teardown, 1 for source swap
+    private long mOpenStartMs;
+    private long mLastStartupTimeMs = -1;
+    private final long[] mStartupTotalMs = new long[2];
+    private final int[] mStartupCount = new int[2];
     private int mAudioSession;
     private int mVideoWidth;
     private int mVideoHeight;
@@ -128,7 +219,13 @@ public class UniversalExoPlayer extends SurfaceView
         mContext = context;
         TypedArray a = mContext.obtainStyledAttributes(attrs, R.styleable.UniversalVideoView, 0, 0);
         mAutoRotation = a.getBoolean(R.styleable.UniversalVideoView_uvv_autoRotation, false);
+        mCacheEnabled = a.getBoolean(R.styleable.UniversalVideoView_uvv_cacheEnabled, false);
+        int cacheMaxSizeMb = a.getInt(R.styleable.UniversalVideoView_uvv_cacheMaxSize, 0);
         a.recycle();
+        if (cacheMaxSizeMb > 0) {
+            MediaCache.getInstance(mContext).setMaxBytes(cacheMaxSizeMb * 1024L * 1024L);
+        }
+        mDataUsage = new DataUsageCounter(SharedBandwidthMeter.getInstance(mContext));
         initVideoView();
     }
 
@@ -152,10 +249,39 @@ public class UniversalExoPlayer extends SurfaceView
                     setPadding(0, padding, 0, padding);
                 }
                 onMeasureKeepAspectRatio(widthMeasureSpec, heightMeasureSpec);
+                updateViewportCap();
                 return;
             }
         }
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        updateViewportCap();
+    }
+
+    /**
+     * Caps adaptive playback at the measured size times the quality factor, or the screen size
+     * in fullscreen.
+     */
+    private void updateViewportCap() {
+        if (mPlayerEntry == null) {
+            return;
+        }
+        int maxWidth = Integer.MAX_VALUE;
+        int maxHeight = Integer.MAX_VALUE;
+        if (mFullscreen) {
+            // the layout may not have grown yet, and the orientation may still change
+            DisplayMetrics metrics = getResources().getDisplayMetrics();
+            int screenSize = Math.max(metrics.widthPixels, metrics.heightPixels);
+            maxWidth = (int) (screenSize * mViewportQuality);
+            maxHeight = maxWidth;
+        } else if (getMeasuredWidth() > 0 && getMeasuredHeight() > 0) {
+            maxWidth = (int) (getMeasuredWidth() * mViewportQuality);
+            maxHeight = (int) (getMeasuredHeight() * mViewportQuality);
+        }
+        if (mViewportQuality <= 0) {
+            maxWidth = Integer.MAX_VALUE;
+            maxHeight = Integer.MAX_VALUE;
+        }
+        mPlayerEntry.viewport.setMaxVideoSize(maxWidth, maxHeight);
     }
 
     private void onMeasureKeepAspectRatio(int widthMeasureSpec, int heightMeasureSpec) {
@@ -295,19 +421,105 @@ public class UniversalExoPlayer extends SurfaceView
      *                to disallow or allow cross domain redirection.
      */
     public void setVideoURI(Uri uri, Map<String, String> headers) {
+        setVideoURI(uri, headers, null);
+    }
+
+    /**
+     * Sets video URI using specific headers and a container hint.
+     *
+     * @param uri      the URI of the video.
+     * @param headers  the headers for the URI request, or null.
+     * @param mimeType {@link #MIME_TYPE_HLS}, {@link #MIME_TYPE_DASH} or {@link #MIME_TYPE_SS} for
+     *                 adaptive streams, otherwise the container MIME type, e.g. "video/mp4".
+     *                 For a container only the matching extractor is built instead of sniffing
+     *                 the stream with all of them; if it can't parse the stream, the clip is
+     *                 prepared again with all extractors. When null, both are guessed from the
+     *                 file extension of {@code uri}.
+     */
+    public void setVideoURI(Uri uri, Map<String, String> headers, String mimeType) {
+        if (mKeptAlive) {
+            // the kept player belongs to the previous clip
+            release(false);
+        }
+        mRenditionSwitcher.setRenditions(null, 0);
         mUri = uri;
+        mHeaders = headers;
+        mMimeType = mimeType;
         mSeekWhenPrepared = 0;
         openVideo();
         requestLayout();
         invalidate();
     }
 
+    /**
+     * Plays progressive renditions of the same video, e.g. MP4 files at several bitrates. Starts
+     * with the best one for the bandwidth estimate and switches between them while playing,
+     * see {@link #getRenditionIndex()}.
+     *
+     * @param renditions at least one rendition, in any order.
+     * @param headers    the headers for the URI requests, or null.
+     * @throws IllegalArgumentException if {@code renditions} is null or empty.
+     */
+    public void setVideoRenditions(List<Rendition> renditions, Map<String, String> headers) {
+        if (renditions == null || renditions.isEmpty()) {
+            throw new IllegalArgumentException("no renditions");
+        }
+        List<Rendition> ladder = RenditionSwitcher.sort(renditions);
+        int index = mRenditionSwitcher.selectIndex(ladder);
+        setVideoURI(ladder.get(index).uri, headers, null);
+        mRenditionSwitcher.setRenditions(ladder, index);
+    }
+
+    /**
+     * @return the index of the rendition playing, in order of decreasing bitrate.
+     */
+    public int getRenditionIndex() {
+        return mRenditionSwitcher.getIndex();
+    }
+
+    public int getRenditionSwitchCount() {
+        return mRenditionSwitcher.getSwitchCount();
+    }
+
+    /**
+     * Makes a standby player, prepared at the current position with another rendition, the
+     * player of this view, and returns the old one.
+     */
+    private void switchPlayer(ExoPlayerPool.Entry standby, Rendition rendition) {
+        SimpleExoPlayer old = mMediaPlayer;
+        float volume = old.getVolume();
+        boolean playWhenReady = old.getPlayWhenReady();
+        mLiveLatencyController.detach();
+        mRenditionSwitcher.detach();
+        old.setVideoDebugListener(null);
+        old.removeVideoListener(mVideoListener);
+        old.removeListener(mEventListener);
+        // stops the old player and frees the surface
+        ExoPlayerPool.getInstance().release(mPlayerEntry);
+
+        mPlayerEntry = standby;
+        mMediaPlayer = standby.player;
+        mUri = rendition.uri;
+        mMediaPlayer.addVideoListener(mVideoListener);
+        mMediaPlayer.addListener(mEventListener);
+        mMediaPlayer.setVideoDebugListener(mVideoDebugListener);
+        mLiveLatencyController.attach(mMediaPlayer);
+        mRenditionSwitcher.attach(mMediaPlayer, mPlayerEntry.config);
+        updateViewportCap();
+        applyDataSaver();
+        if (mSurfaceHolder != null) {
+            mMediaPlayer.setVideoSurfaceHolder(mSurfaceHolder);
+        } else {
+            mMediaPlayer.clearVideoSurface();
+        }
+        mMediaPlayer.setVolume(volume);
+        mMediaPlayer.setPlayWhenReady(playWhenReady);
+    }
 
     public void stopPlayback() {
+        cancelKeepAlive();
         if (mMediaPlayer != null) {
-            mMediaPlayer.stop();
-            mMediaPlayer.release();
-            mMediaPlayer = null;
+            releasePlayer();
             mCurrentState = STATE_IDLE;
             mTargetState = STATE_IDLE;
             if (mAudioManager != null) {
@@ -317,18 +529,38 @@ public class UniversalExoPlayer extends SurfaceView
     }
 
     private void openVideo() {
-        if (mUri == null || mSurfaceHolder == null) {
+        if (mUri == null) {
             // not ready for playback just yet, will try again later
             return;
         }
+        // ExoPlayer can prepare without a surface, so start connecting and buffering right
+        // away and bind the surface in surfaceCreated().
+
+        mOpenStartMs = SystemClock.elapsedRealtime();
+        if (canSwapSource()) {
+            // the stats so far belong to the previous clip
+            logPlaybackStats();
+            resetClipState();
+            swapSource();
+            return;
+        }
+        resetClipState();
 
         // we shouldn't clear the target state, because somebody might have
         // called start() previously
         release(false);
         try {
             mMediaPlayer = getExoPlayerInstance();
+            if (mSurfaceHolder != null) {
+                mMediaPlayer.setVideoSurfaceHolder(mSurfaceHolder);
+            }
+            mOpenedBySwap = false;
 
-            requestAudioFocus();
+            if (mPreloadTargetMs <= 0) {
+                // preloading views must not take the focus from the one that is playing,
+                // start() asks for it
+                requestAudioFocus();
+            }
             setVideoPath();
 
             // we don't set the target state here either, but preserve the
@@ -342,6 +574,80 @@ public class UniversalExoPlayer extends SurfaceView
         }
     }
 
+    /**
+     * Resets what is measured or learned per clip, for both a new player and a swapped source.
+     */
+    private void resetClipState() {
+        mFormatHinted = false;
+        mFormatHintFailed = false;
+        mPlaybackStats.reset();
+        mDataUsage.reset();
+        mLiveLatencyController.reset();
+        synchronized (this) {
+            mReconnectCount = 0;
+            mReconnectWaitMs = 0;
+        }
+    }
+
+    private boolean canSwapSource() {
+        return mSourceSwapEnabled && mMediaPlayer != null && mCurrentState != STATE_ERROR
+                && mPlayerEntry.config.equals(mPlayerConfig);
+    }
+
+    /**
+     * Replaces only the MediaSource of the current player. The player, its renderers and the
+     * surface binding stay alive, so the next clip costs only the network and extraction time.
+     */
+    private void swapSource() {
+        try {
+            mOpenedBySwap = true;
+            mCurrentBufferPercentage = 0;
+            mCanPause = mCanSeekBack = mCanSeekForward = false;
+            setVideoPath();
+
+            mCurrentState = STATE_PREPARING;
+            attachMediaController();
+        } catch (Exception ex) {
+            Log.w(TAG, "Unable to swap content: " + mUri, ex);
+            mCurrentState = STATE_ERROR;
+            mTargetState = STATE_ERROR;
+        }
+    }
+
+    /**
+     * Whether {@link #setVideoURI(Uri)} reuses the current player and only replaces its source,
+     * instead of returning the player and borrowing a new one. Defaults to true.
+     */
+    public void setSourceSwapEnabled(boolean enabled) {
+        mSourceSwapEnabled = enabled;
+    }
+
+    /**
+     * @return time from {@link #setVideoURI(Uri)} to the first rendered frame of the last clip,
+     * or -1 if no frame has been rendered yet.
+     */
+    public long getLastStartupTimeMs() {
+        return mLastStartupTimeMs;
+    }
+
+    /**
+     * @param swap true for clips opened through the source-swap path, false for clips that
+     *             went through a full player teardown.
+     * @return the average startup time of that path, or -1 if it has not been used yet.
+     */
+    public long getAverageStartupTimeMs(boolean swap) {
+        int index = swap ? 1 : 0;
+        return mStartupCount[index] == 0 ? -1 : mStartupTotalMs[index] / mStartupCount[index];
+    }
+
+    /**
+     * Sets the buffering and adaptive track selection configuration used when borrowing a player
+     * from {@link ExoPlayerPool}. Takes effect on the next {@link #setVideoURI(Uri)}.
+     */
+    public void setPlayerConfig(ExoPlayerPool.Config config) {
+        mPlayerConfig = config != null ? config : ExoPlayerPool.Config.DEFAULT;
+    }
+
     public void setMediaController(UniversalMediaController controller) {
         if (mMediaController != null) {
             mMediaController.hide();
@@ -382,7 +688,14 @@ public class UniversalExoPlayer extends SurfaceView
 
         public void surfaceCreated(SurfaceHolder holder) {
             mSurfaceHolder = holder;
-            openVideo();
+            if (mKeptAlive && mMediaPlayer != null) {
+                reattach();
+            } else if (mMediaPlayer != null) {
+                // prepared before the surface existed
+                attachSurface();
+            } else {
+                openVideo();
+            }
             enableOrientationDetect();
         }
 
@@ -390,11 +703,65 @@ public class UniversalExoPlayer extends SurfaceView
             // after we return from this we can't use the surface any more
             mSurfaceHolder = null;
             if (mMediaController != null) mMediaController.hide();
-            release(true);
+            if (mKeepAliveTimeoutMs > 0 && mMediaPlayer != null && mCurrentState != STATE_ERROR) {
+                keepAlive(holder);
+            } else {
+                release(true);
+            }
             disableOrientationDetect();
         }
     };
 
+    /**
+     * Keeps the player, its buffer and position while the surface is gone, e.g. when the app
+     * goes to background or a dialog covers the view. The player is released if no new surface
+     * shows up within {@code timeoutMs}. 0 disables keep-alive, which is the default.
+     */
+    public void setKeepAliveTimeoutMs(long timeoutMs) {
+        mKeepAliveTimeoutMs = timeoutMs;
+    }
+
+    private void keepAlive(SurfaceHolder holder) {
+        mResumeOnReattach = mMediaPlayer.getPlayWhenReady();
+        // loading goes on, only rendering stops
+        mMediaPlayer.setPlayWhenReady(false);
+        mMediaPlayer.clearVideoSurfaceHolder(holder);
+        mKeptAlive = true;
+        mHandler.removeCallbacks(mKeepAliveTimeoutRunnable);
+        mHandler.postDelayed(mKeepAliveTimeoutRunnable, mKeepAliveTimeoutMs);
+    }
+
+    private void reattach() {
+        cancelKeepAlive();
+        mMediaPlayer.setVideoSurfaceHolder(mSurfaceHolder);
+        if (mResumeOnReattach) {
+            mMediaPlayer.setPlayWhenReady(true);
+        }
+    }
+
+    private void attachSurface() {
+        mMediaPlayer.setVideoSurfaceHolder(mSurfaceHolder);
+        if (mPlayOnSurfaceCreated) {
+            mPlayOnSurfaceCreated = false;
+            mMediaPlayer.setPlayWhenReady(true);
+        }
+    }
+
+    private void cancelKeepAlive() {
+        mKeptAlive = false;
+        mHandler.removeCallbacks(mKeepAliveTimeoutRunnable);
+    }
+
+    private final Runnable mKeepAliveTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mKeptAlive) {
+                Log.d(TAG, "keep-alive timed out, releasing player");
+                release(true);
+            }
+        }
+    };
+
     private void enableOrientationDetect() {
         if (mAutoRotation) {
             mOrientationDetector = new OrientationDetector(mContext);
@@ -413,9 +780,9 @@ public class UniversalExoPlayer extends SurfaceView
      * release the media player in any state
      */
     public void release(boolean cleartargetstate) {
+        cancelKeepAlive();
         if (mMediaPlayer != null) {
-            mMediaPlayer.release();
-            mMediaPlayer = null;
+            releasePlayer();
             mCurrentState = STATE_IDLE;
             if (cleartargetstate) {
                 mTargetState = STATE_IDLE;
@@ -494,23 +861,39 @@ public class UniversalExoPlayer extends SurfaceView
         int playbackState = Player.STATE_READY;
         if (mMediaPlayer != null)
             playbackState = mMediaPlayer.getPlaybackState();
-        boolean isPlaying = (playbackState == Player.STATE_BUFFERING || playbackState == Player.STATE_READY);
+        boolean isPlaying = (playbackState == Player.STATE_BUFFERING || playbackState == Player.STATE_READY)
+                && mMediaPlayer != null && mMediaPlayer.getPlayWhenReady();
         Log.e("Universal isPlaying()", "mCurrentState = " + mCurrentState + " ||| isInPlaybackState = " + isInPlaybackState + " ||| isPlaying = " + isPlaying);
         return isInPlaybackState && isPlaying;
     }
 
     @Override
     public void start() {
+        if (mMediaPlayer == null || mCurrentState == STATE_ERROR) {
+            // nothing opened to start, the next openVideo() plays once it has a surface
+            mTargetState = STATE_PLAYING;
+            return;
+        }
         int result = requestAudioFocus();
         if (result != AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
             Log.e("Universal start()", "result = " + result);
             return;
         }
-        if (mMediaPlayer != null && mMediaPlayer.getPlaybackState() == Player.STATE_ENDED){
+        if (mMediaPlayer.getPlaybackState() == Player.STATE_ENDED){
             mMediaPlayer.seekTo(0);
         }
 
-        mMediaPlayer.setPlayWhenReady(true);
+        if (mPreloading && mPlayerEntry != null) {
+            // the user asked for playback, buffer beyond the preload target again
+            mPreloading = false;
+            mPlayerEntry.loadControl.setPreloadTargetMs(C.TIME_UNSET);
+        }
+        if (mSurfaceHolder == null) {
+            // prepared ahead of the surface, play once it is bound
+            mPlayOnSurfaceCreated = true;
+        } else {
+            mMediaPlayer.setPlayWhenReady(true);
+        }
         mCurrentState = STATE_PLAYING;
         mTargetState = STATE_PLAYING;
         Log.e("Universal start()", "start mCurrentState = " + mCurrentState);
@@ -524,6 +907,7 @@ public class UniversalExoPlayer extends SurfaceView
 
     @Override
     public void pause() {
+        mPlayOnSurfaceCreated = false;
         if (mMediaPlayer != null)
             mMediaPlayer.setPlayWhenReady(false);
         mCurrentState = STATE_PAUSED;
@@ -615,6 +999,8 @@ public class UniversalExoPlayer extends SurfaceView
 
     @Override
     public void setFullscreen(boolean fullscreen, int screenOrientation) {
+        mFullscreen = fullscreen;
+        updateViewportCap();
         if (fullscreen) {
             if (mVideoViewLayoutWidth == 0 && mVideoViewLayoutHeight == 0) {
                 ViewGroup.LayoutParams params = getLayoutParams();
@@ -691,24 +1077,39 @@ public class UniversalExoPlayer extends SurfaceView
     }
 
     /**
-     * 创建 ExoPlayer 实例
+     * 从 {@link ExoPlayerPool} 借一个 ExoPlayer 实例
      *
      * @return
      */
     private SimpleExoPlayer getExoPlayerInstance() {
+        mPlayerEntry = ExoPlayerPool.getInstance().acquire(getContext(), mPlayerConfig);
+        SimpleExoPlayer player = mPlayerEntry.player;
+        player.addVideoListener(mVideoListener);
+        player.addListener(mEventListener);
+        player.setVideoDebugListener(mVideoDebugListener);
+        mLiveLatencyController.attach(player);
+        updateViewportCap();
+        DataSaver.getInstance(getContext()).addListener(mDataSaverListener);
+        applyDataSaver();
+        mRenditionSwitcher.attach(player, mPlayerEntry.config);
+        return player;
+    }
 
-// 创建带宽
-        BandwidthMeter bandwidthMeter = new DefaultBandwidthMeter();
-
-// 创建轨道选择工厂
-        TrackSelection.Factory videoTrackSelectionFactory = new AdaptiveTrackSelection.Factory(bandwidthMeter);
-
-// 创建轨道选择器实例
-        TrackSelector trackSelector = new DefaultTrackSelector(videoTrackSelectionFactory);
-
-//step2. 创建播放器
-
-        return ExoPlayerFactory.newSimpleInstance(getContext(), trackSelector);
+    /**
+     * 把 ExoPlayer 实例还给 {@link ExoPlayerPool}
+     */
+    private void releasePlayer() {
+        releaseHlsSegmentPrefetcher();
+        mLiveLatencyController.detach();
+        mRenditionSwitcher.detach();
+        logPlaybackStats();
+        DataSaver.getInstance(getContext()).removeListener(mDataSaverListener);
+        mMediaPlayer.setVideoDebugListener(null);
+        mMediaPlayer.removeVideoListener(mVideoListener);
+        mMediaPlayer.removeListener(mEventListener);
+        ExoPlayerPool.getInstance().release(mPlayerEntry);
+        mPlayerEntry = null;
+        mMediaPlayer = null;
     }
 
     /**
@@ -717,129 +1118,529 @@ public class UniversalExoPlayer extends SurfaceView
      * @return
      */
     private void setVideoPath() {
+        if (mMediaPlayer == null || mPlayerEntry == null) {
+            // released while the format hint fallback was pending
+            return;
+        }
         showLoading();
-        // 测量播放带宽，如果不需要可以传null
-        DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter();
+        MediaSource videoSource = buildMediaSource();
+
+// Prepare, but don't play out audio before there is a surface to render into
+        mPreloading = mPreloadTargetMs > 0;
+        mPreloadNotified = false;
+        mPlayerEntry.loadControl.setPreloadTargetMs(mPreloading ? mPreloadTargetMs : C.TIME_UNSET);
+        mPlayOnSurfaceCreated = !mPreloading && mSurfaceHolder == null;
+        mMediaPlayer.setPlayWhenReady(!mPreloading && mSurfaceHolder != null);
+        mMediaPlayer.prepare(videoSource);
+    }
 
-// 创建加载数据的工厂
-        DataSource.Factory dataSourceFactory = new DefaultDataSourceFactory(getContext(),
-                Util.getUserAgent(getContext(), "yourApplicationName"), bandwidthMeter);
+    private final SimpleExoPlayer.VideoListener mVideoListener = new SimpleExoPlayer.VideoListener() {
+        @Override
+        public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees, float pixelWidthHeightRatio) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                int rotationDegrees = mMediaPlayer.getVideoFormat().rotationDegrees;
+                Log.e("onVideoSizeChanged", "rotationDegrees = " + rotationDegrees);
+                if (rotationDegrees == 90) {
 
-// 创建解析数据的工厂
-        ExtractorsFactory extractorsFactory = new DefaultExtractorsFactory();
+                }
+            }
 
-// 传入Uri、加载数据的工厂、解析数据的工厂，就能创建出MediaSource
-        MediaSource videoSource = new ExtractorMediaSource(mUri,
-                dataSourceFactory, extractorsFactory, null, null);
+            if (wantHeight > 0 && wantWidth > 0) {
+                mVideoWidth = wantWidth;
+                mVideoHeight = wantHeight;
+            } else {
+                mVideoWidth = width;
+                mVideoHeight = height;
+            }
+            requestLayout();
+        }
 
-        mMediaPlayer.setVideoSurfaceHolder(mSurfaceHolder);
+        @Override
+        public void onRenderedFirstFrame() {
+            if (mOpenStartMs != 0) {
+                mLastStartupTimeMs = SystemClock.elapsedRealtime() - mOpenStartMs;
+                mOpenStartMs = 0;
+                int index = mOpenedBySwap ? 1 : 0;
+                mStartupTotalMs[index] += mLastStartupTimeMs;
+                mStartupCount[index]++;
+                Log.d(TAG, "startup " + mLastStartupTimeMs + "ms (" + (mOpenedBySwap ? "swap" : "teardown")
+                        + "), avg swap=" + getAverageStartupTimeMs(true)
+                        + "ms, avg teardown=" + getAverageStartupTimeMs(false) + "ms");
+            }
+        }
+    };
 
-// Prepare
-        mMediaPlayer.setPlayWhenReady(true);
-        mMediaPlayer.prepare(videoSource);
-        mMediaPlayer.addVideoListener(new SimpleExoPlayer.VideoListener() {
-            @Override
-            public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees, float pixelWidthHeightRatio) {
-                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-                    int rotationDegrees = mMediaPlayer.getVideoFormat().rotationDegrees;
-                    Log.e("onVideoSizeChanged", "rotationDegrees = " + rotationDegrees);
-                    if (rotationDegrees == 90) {
+    private final VideoRendererEventListener mVideoDebugListener = new VideoRendererEventListener() {
+        @Override
+        public void onVideoEnabled(DecoderCounters counters) {
+        }
 
-                    }
-                }
+        @Override
+        public void onVideoDecoderInitialized(String decoderName, long initializedTimestampMs,
+                                              long initializationDurationMs) {
+        }
 
-                if (wantHeight > 0 && wantWidth > 0) {
-                    mVideoWidth = wantWidth;
-                    mVideoHeight = wantHeight;
-                } else {
-                    mVideoWidth = width;
-                    mVideoHeight = height;
-                }
-                requestLayout();
-            }
+        @Override
+        public void onVideoInputFormatChanged(Format format) {
+            mPlaybackStats.onVideoFormatChanged(format);
+        }
 
-            @Override
-            public void onRenderedFirstFrame() {
+        @Override
+        public void onDroppedFrames(int count, long elapsedMs) {
+        }
 
-            }
-        });
-        mMediaPlayer.addListener(new Player.EventListener() {
-            @Override
-            public void onTimelineChanged(Timeline timeline, Object manifest) {
-                Log.e("onTimelineChanged", "onTimelineChanged");
-            }
+        @Override
+        public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees,
+                                       float pixelWidthHeightRatio) {
+        }
 
-            @Override
-            public void onTracksChanged(TrackGroupArray trackGroups, TrackSelectionArray trackSelections) {
-                Log.e("onTracksChanged", "onTracksChanged");
-            }
+        @Override
+        public void onRenderedFirstFrame(Surface surface) {
+        }
 
-            @Override
-            public void onLoadingChanged(boolean isLoading) {
-                Log.e("onLoadingChanged", isLoading + "");
-            }
+        @Override
+        public void onVideoDisabled(DecoderCounters counters) {
+        }
+    };
+
+    private final Player.EventListener mEventListener = new Player.EventListener() {
+        @Override
+        public void onTimelineChanged(Timeline timeline, Object manifest) {
+            Log.e("onTimelineChanged", "onTimelineChanged");
+        }
+
+        @Override
+        public void onTracksChanged(TrackGroupArray trackGroups, TrackSelectionArray trackSelections) {
+            Log.e("onTracksChanged", "onTracksChanged");
+        }
 
-            @Override
-            public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+        @Override
+        public void onLoadingChanged(boolean isLoading) {
+            Log.e("onLoadingChanged", isLoading + "");
+            maybeNotifyPreloaded();
+        }
+
+        @Override
+        public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
 //                Log.e("onPlayerStateChanged", "playbackState = " + playbackState);
-                switch (playbackState) {
-                    case Player.STATE_BUFFERING:
-                        mCurrentBufferPercentage = getCurrentPosition();
-                        break;
-
-                    case Player.STATE_READY:
-                        readyWithPrepared();
-                        break;
-
-                    case Player.STATE_ENDED:
-                        mCurrentState = STATE_PLAYBACK_COMPLETED;
-                        mTargetState = STATE_PLAYBACK_COMPLETED;
-                        if (mMediaController != null) {
-                            mMediaController.showComplete();
-                        }
-                        break;
-
-                    case Player.STATE_IDLE:
-                        mCurrentState = STATE_IDLE;
-                        break;
-                }
+            mLiveLatencyController.onPlaybackStateChanged(playWhenReady, playbackState);
+            mPlaybackStats.onPlayerStateChanged(playWhenReady, playbackState);
+            if (mPlayerEntry != null) {
+                mPlayerEntry.loadControl.setPlayWhenReady(playWhenReady);
             }
+            switch (playbackState) {
+                case Player.STATE_BUFFERING:
+                    mCurrentBufferPercentage = getCurrentPosition();
+                    break;
+
+                case Player.STATE_READY:
+                    readyWithPrepared();
+                    maybeNotifyPreloaded();
+                    break;
+
+                case Player.STATE_ENDED:
+                    mCurrentState = STATE_PLAYBACK_COMPLETED;
+                    mTargetState = STATE_PLAYBACK_COMPLETED;
+                    if (mMediaController != null) {
+                        mMediaController.showComplete();
+                    }
+                    break;
 
-            @Override
-            public void onRepeatModeChanged(int repeatMode) {
-                Log.e("onRepeatModeChanged", repeatMode + "");
+                case Player.STATE_IDLE:
+                    mCurrentState = STATE_IDLE;
+                    break;
             }
+        }
+
+        @Override
+        public void onRepeatModeChanged(int repeatMode) {
+            Log.e("onRepeatModeChanged", repeatMode + "");
+        }
+
+        @Override
+        public void onShuffleModeEnabledChanged(boolean shuffleModeEnabled) {
+            Log.e("onShuffleM..Changed", shuffleModeEnabled + "");
+        }
 
-            @Override
-            public void onShuffleModeEnabledChanged(boolean shuffleModeEnabled) {
-                Log.e("onShuffleM..Changed", shuffleModeEnabled + "");
+        @Override
+        public void onPlayerError(ExoPlaybackException error) {
+            if (mFormatHinted && error.type == ExoPlaybackException.TYPE_SOURCE
+                    && error.getSourceException() instanceof ParserException) {
+                // 格式提示不对, 用全部解析器重新探测
+                Log.w(TAG, "format hint failed for " + mUri + ", sniffing all formats", error);
+                mFormatHintFailed = true;
+                setVideoPath();
+                return;
+            }
+            mCurrentState = STATE_ERROR;
+            mTargetState = STATE_ERROR;
+            if (mMediaController != null) {
+                mMediaController.showError();
             }
+            error.printStackTrace();
+        }
 
-            @Override
-            public void onPlayerError(ExoPlaybackException error) {
-                mCurrentState = STATE_ERROR;
-                mTargetState = STATE_ERROR;
-                if (mMediaController != null) {
-                    mMediaController.showError();
-                }
-                error.printStackTrace();
+        @Override
+        public void onPositionDiscontinuity(int reason) {
+            Log.e("onPositionDiscontinuity", reason + "");
+            mLiveLatencyController.onPositionDiscontinuity(reason);
+            mRenditionSwitcher.onPositionDiscontinuity(reason);
+            if (reason == Player.DISCONTINUITY_REASON_SEEK) {
+                mPlaybackStats.onSeek();
             }
+        }
+
+        @Override
+        public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
+            Log.e("onPlaybackP..Changed", playbackParameters.toString());
+            mLiveLatencyController.onPlaybackParametersChanged(playbackParameters);
+        }
 
-            @Override
-            public void onPositionDiscontinuity(int reason) {
-                Log.e("onPositionDiscontinuity", reason + "");
+        @Override
+        public void onSeekProcessed() {
+            Log.e("onTracksChanged", "onTracksChanged");
+        }
+    };
+
+    /**
+     * 根据内容类型创建 MediaSource: HLS, DASH, SmoothStreaming 或者普通文件
+     */
+    private MediaSource buildMediaSource() {
+        int type = inferContentType();
+        Log.d(TAG, "content type " + type + " for " + mUri);
+        mFormatHinted = false;
+        releaseHlsSegmentPrefetcher();
+        switch (type) {
+            case C.TYPE_HLS:
+                return new HlsMediaSource(mUri, buildDataSourceFactory(type), MIN_LOADABLE_RETRY_COUNT, null, null);
+            case C.TYPE_DASH: {
+                DataSource.Factory dataSourceFactory = buildDataSourceFactory(type);
+                return new DashMediaSource(mUri, dataSourceFactory,
+                        new DefaultDashChunkSource.Factory(dataSourceFactory), MIN_LOADABLE_RETRY_COUNT,
+                        DashMediaSource.DEFAULT_LIVE_PRESENTATION_DELAY_PREFER_MANIFEST_MS, null, null);
             }
+            case C.TYPE_SS: {
+                DataSource.Factory dataSourceFactory = buildDataSourceFactory(type);
+                return new SsMediaSource(mUri, dataSourceFactory,
+                        new DefaultSsChunkSource.Factory(dataSourceFactory), MIN_LOADABLE_RETRY_COUNT,
+                        SsMediaSource.DEFAULT_LIVE_PRESENTATION_DELAY_MS, null, null);
+            }
+            default: {
+                // 创建解析数据的工厂, 知道容器格式时只创建对应的解析器
+                HintedExtractorsFactory extractorsFactory = mFormatHintFailed
+                        ? new HintedExtractorsFactory() : new HintedExtractorsFactory(mMimeType, mUri);
+                mFormatHinted = extractorsFactory.isHinted();
+                return new ExtractorMediaSource(mUri, buildDataSourceFactory(type), extractorsFactory,
+                        MIN_LOADABLE_RETRY_COUNT, null, null, null);
+            }
+        }
+    }
 
-            @Override
-            public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
-                Log.e("onPlaybackP..Changed", playbackParameters.toString());
+    /**
+     * @return one of the {@code C.TYPE_*} content types, from the MIME type passed to
+     * {@link #setVideoURI(Uri, Map, String)} or else the URI's path.
+     */
+    private int inferContentType() {
+        if (mMimeType != null) {
+            String mimeType = mMimeType.toLowerCase(Locale.US);
+            if (mimeType.equals(MIME_TYPE_HLS) || mimeType.equals(MIME_TYPE_HLS_LEGACY)) {
+                return C.TYPE_HLS;
+            } else if (mimeType.equals(MIME_TYPE_DASH)) {
+                return C.TYPE_DASH;
+            } else if (mimeType.equals(MIME_TYPE_SS)) {
+                return C.TYPE_SS;
             }
+            return C.TYPE_OTHER;
+        }
+        // the whole path, SmoothStreaming manifests end in "<name>.ism/Manifest"
+        String path = mUri.getPath();
+        return path != null ? Util.inferContentType(path) : C.TYPE_OTHER;
+    }
 
-            @Override
-            public void onSeekProcessed() {
-                Log.e("onTracksChanged", "onTracksChanged");
+    /**
+     * 创建加载数据的工厂, 开启缓存时在网络前面依次加上磁盘缓存和内存缓存
+     *
+     * @param contentType one of the {@code C.TYPE_*} content types. Progressive files get the
+     *                    parallel range and fast start loaders, HLS the segment prefetcher.
+     */
+    private DataSource.Factory buildDataSourceFactory(int contentType) {
+        boolean progressive = contentType == C.TYPE_OTHER;
+        // 和自适应码率选择共用同一个带宽计, 顺便按网络类型统计流量
+        // http(s) 走共享的连接池, 带上 setVideoURI() 传入的请求头
+        HttpDataSource.Factory httpFactory =
+                MediaHttpClient.getInstance(getContext()).buildDataSourceFactory(mHeaders, mDataUsage);
+        DataSource.Factory networkFactory = progressive && mParallelConnections > 1
+                ? ParallelRangeDataSource.newFactory(httpFactory, mParallelConnections, mParallelChunkSize)
+                : httpFactory;
+        // 切换 Wi-Fi/移动网络时在新网络上从断开的位置接着读, 播放器不会报错
+        networkFactory = ReconnectingDataSource.newFactory(networkFactory,
+                SharedBandwidthMeter.getInstance(getContext()), mReconnectListener);
+        if (progressive && mFastStartEnabled) {
+            networkFactory = FastStartDataSource.newFactory(networkFactory);
+        }
+        if (contentType == C.TYPE_HLS && mHlsSegmentsInFlight > 1) {
+            mHlsSegmentPrefetcher = new HlsSegmentPrefetcher(networkFactory, mHlsSegmentsInFlight,
+                    mPlayerEntry.loadControl);
+            networkFactory = mHlsSegmentPrefetcher.buildDataSourceFactory();
+        }
+        DataSource.Factory factory = new DefaultDataSourceFactory(getContext(), mDataUsage, networkFactory);
+        if (mCacheEnabled && MediaCache.isCacheable(mUri)) {
+            factory = MediaCache.getInstance(getContext()).buildDataSourceFactory(factory);
+        }
+        if (mMemoryCacheEnabled && MediaCache.isCacheable(mUri)) {
+            factory = MemoryCache.getInstance(getContext()).buildDataSourceFactory(factory);
+        }
+        return factory;
+    }
+
+    /**
+     * Serves replays, seeks back and revisits from {@link MediaCache} instead of the network.
+     * Also settable with the {@code uvv_cacheEnabled} attribute, the size cap with
+     * {@code uvv_cacheMaxSize} (in megabytes) or {@link MediaCache#setMaxBytes(long)}.
+     * Takes effect on the next {@link #setVideoURI(Uri)}.
+     */
+    public void setCacheEnabled(boolean enabled) {
+        mCacheEnabled = enabled;
+    }
+
+    /**
+     * Serves recently read spans from {@link MemoryCache}, in front of the disk cache and the
+     * network. Helps short looping clips and repeated seeks within the same video.
+     * Takes effect on the next {@link #setVideoURI(Uri)}.
+     */
+    public void setMemoryCacheEnabled(boolean enabled) {
+        mMemoryCacheEnabled = enabled;
+    }
+
+    /**
+     * Fetches the {@code moov} box of MP4 files that have it at the end in parallel with the
+     * head, so they start as fast as faststart files. Enabled by default.
+     * Takes effect on the next {@link #setVideoURI(Uri)}.
+     */
+    public void setFastStartEnabled(boolean enabled) {
+        mFastStartEnabled = enabled;
+    }
+
+    /**
+     * Keeps up to {@code maxInFlight} HLS segment requests running, the player's own included,
+     * instead of loading segments one after another. Segments are only requested ahead while
+     * they end within the player's current buffer limit of the playback position, which data
+     * saver and preload mode lower, and while their bytes fit in what is left of the player's
+     * memory budget. 1 disables it, which is the default. Takes effect on the next
+     * {@link #setVideoURI(Uri)}.
+     */
+    public void setHlsSegmentsInFlight(int maxInFlight) {
+        mHlsSegmentsInFlight = Math.max(1, maxInFlight);
+    }
+
+    private void releaseHlsSegmentPrefetcher() {
+        if (mHlsSegmentPrefetcher != null) {
+            mHlsSegmentPrefetcher.release();
+            mHlsSegmentPrefetcher = null;
+        }
+    }
+
+    /**
+     * Caps adaptive video at the view's measured size times {@code factor}, lifted to the screen
+     * size while fullscreen. Quality steps up or down from the next chunk without dropping the
+     * buffer. {@link #DEFAULT_VIEWPORT_QUALITY} by default, 0 disables the cap.
+     */
+    public void setViewportQualityFactor(float factor) {
+        mViewportQuality = factor;
+        updateViewportCap();
+    }
+
+    /**
+     * Loads the first {@code connections * chunkSize} bytes of every http(s) request as
+     * {@code connections} concurrent range requests, which starts progressive files faster on
+     * high-latency links. Servers without range support are read over one connection.
+     * 1 disables it, which is the default. Takes effect on the next {@link #setVideoURI(Uri)}.
+     *
+     * @param chunkSize bytes per request, {@link #DEFAULT_PARALLEL_CHUNK_SIZE} by default.
+     */
+    public void setParallelConnections(int connections, int chunkSize) {
+        mParallelConnections = Math.max(1, connections);
+        mParallelChunkSize = chunkSize;
+    }
+
+    /**
+     * Enables preload mode for the next {@link #setVideoURI(Uri)}: the clip is prepared paused,
+     * loading stops once {@code targetBufferMs} of media is buffered and the
+     * {@link OnPreloadListener} is notified. {@link #start()} then renders the first frame without
+     * waiting for the network. Works on off-screen views as well, since preparing does not need a
+     * surface. 0 disables preload mode, which is the default.
+     */
+    public void setPreloadTargetMs(long targetBufferMs) {
+        mPreloadTargetMs = targetBufferMs;
+    }
+
+    public void setOnPreloadListener(OnPreloadListener l) {
+        mOnPreloadListener = l;
+    }
+
+    /**
+     * @return true if the clip was preloaded to its target and is waiting for {@link #start()}.
+     */
+    public boolean isPreloaded() {
+        return mPreloading && mPreloadNotified;
+    }
+
+    private void maybeNotifyPreloaded() {
+        if (!mPreloading || mPreloadNotified || mMediaPlayer == null
+                || mMediaPlayer.getPlaybackState() != Player.STATE_READY) {
+            return;
+        }
+        long bufferedMs = mMediaPlayer.getBufferedPosition() - mMediaPlayer.getCurrentPosition();
+        // loading stops at the target, or earlier when the whole clip is buffered
+        if (!mMediaPlayer.isLoading() || bufferedMs >= mPreloadTargetMs) {
+            mPreloadNotified = true;
+            Log.d(TAG, "preloaded " + bufferedMs + "ms of " + mUri);
+            if (mOnPreloadListener != null) {
+                mOnPreloadListener.onPreloaded(this);
             }
-        });
+        }
+    }
+
+    public interface OnPreloadListener {
+        /**
+         * Called when the clip is buffered to the preload target and ready to start.
+         */
+        void onPreloaded(UniversalExoPlayer view);
+    }
+
+    /**
+     * Keeps live streams {@code targetOffsetMs} behind the live edge: playback is sped up by up to
+     * 8% while it is further behind, and jumps to the target when it resumes from a stall more
+     * than 5s behind. 0 disables it, which is the default.
+     */
+    public void setLiveTargetOffsetMs(long targetOffsetMs) {
+        mLiveLatencyController.setTargetOffsetMs(targetOffsetMs);
+    }
+
+    /**
+     * Called about once per second with the live offset while live latency control is enabled.
+     */
+    public void setOnLiveOffsetListener(OnLiveOffsetListener l) {
+        mOnLiveOffsetListener = l;
+    }
+
+    /**
+     * @return the last measured distance behind the live edge, or {@link C#TIME_UNSET} if the
+     * clip isn't live or live latency control is disabled.
+     */
+    public long getLiveOffsetMs() {
+        return mLiveLatencyController.getOffsetMs();
+    }
+
+    /**
+     * @return the average distance behind the live edge of the current clip, or
+     * {@link C#TIME_UNSET}.
+     */
+    public long getAverageLiveOffsetMs() {
+        return mLiveLatencyController.getAverageOffsetMs();
+    }
+
+    public long getMaxLiveOffsetMs() {
+        return mLiveLatencyController.getMaxOffsetMs();
+    }
+
+    /**
+     * @return how many times playback jumped forward after a stall.
+     */
+    public int getLiveJumpCount() {
+        return mLiveLatencyController.getJumpCount();
+    }
+
+    /**
+     * @return time spent rebuffering over time spent playing or rebuffering in the current
+     * playback, to compare {@link ExoPlayerPool.Config} track selections.
+     */
+    public float getRebufferRatio() {
+        return mPlaybackStats.getRebufferRatio();
+    }
+
+    public int getRebufferCount() {
+        return mPlaybackStats.getRebufferCount();
+    }
+
+    /**
+     * @return the average bitrate of the video played so far, weighted by play time, or 0.
+     */
+    public int getAverageVideoBitrate() {
+        return mPlaybackStats.getAverageBitrate();
+    }
+
+    /**
+     * @return how many requests of the current playback were resumed on a new network after
+     * the device switched networks, instead of failing playback.
+     */
+    public synchronized int getReconnectCount() {
+        return mReconnectCount;
+    }
+
+    /**
+     * @return total time requests of the current playback waited for a new network.
+     */
+    public synchronized long getReconnectWaitMs() {
+        return mReconnectWaitMs;
+    }
+
+    /**
+     * @return bytes downloaded from the network for the current playback, by network type such
+     * as {@code WIFI} or {@code MOBILE:LTE}. Cache hits are not included.
+     */
+    public Map<String, Long> getBytesDownloadedByNetwork() {
+        return mDataUsage.getBytes();
+    }
+
+    private void logPlaybackStats() {
+        Log.d(TAG, String.format(Locale.US, "%s selection: rebuffer ratio %.3f (%d rebuffers), average bitrate %d kbps",
+                mPlayerEntry.config.trackSelection == ExoPlayerPool.Config.TRACK_SELECTION_BUFFER_BASED
+                        ? "buffer-based" : "throughput",
+                getRebufferRatio(), getRebufferCount(), getAverageVideoBitrate() / 1000));
+        Log.d(TAG, "downloaded " + mDataUsage.getBytes() + " bytes by network, " + getReconnectCount()
+                + " reconnects after network changes");
+    }
+
+    /**
+     * Applies or lifts the {@link DataSaver} caps on the current player. The buffer cap goes
+     * through the load control, which the HLS segment prefetcher also reads.
+     */
+    private void applyDataSaver() {
+        if (mPlayerEntry == null) {
+            return;
+        }
+        DataSaver dataSaver = DataSaver.getInstance(getContext());
+        boolean active = dataSaver.isActive();
+        mPlayerEntry.viewport.setMaxBitrate(active ? dataSaver.getMaxBitrate() : Integer.MAX_VALUE);
+        mPlayerEntry.loadControl.setMaxBufferMs(active ? dataSaver.getMaxBufferMs() : C.TIME_UNSET);
+        if (mHlsSegmentPrefetcher != null) {
+            mHlsSegmentPrefetcher.onBufferLimitChanged();
+        }
+    }
+
+    /**
+     * One progressive file of a video encoded at several bitrates.
+     */
+    public static final class Rendition {
+        public final Uri uri;
+        /**
+         * Average bitrate in bits per second.
+         */
+        public final int bitrate;
+
+        public Rendition(Uri uri, int bitrate) {
+            this.uri = uri;
+            this.bitrate = bitrate;
+        }
+    }
+
+    public interface OnLiveOffsetListener {
+        /**
+         * @param offsetMs distance behind the live edge.
+         * @param speed    the current playback speed.
+         */
+        void onLiveOffsetChanged(UniversalExoPlayer view, long offsetMs, float speed);
     }
 
     public void setWantWH(int wantWidth, int wantHeight) {
@@ -857,10 +1658,10 @@ public class UniversalExoPlayer extends SurfaceView
 
     public void readyWithPrepared() {
         mCurrentState = STATE_PREPARED;
-        mMediaController.show(0);
         mCanPause = mCanSeekBack = mCanSeekForward = true;
 
         if (mMediaController != null) {
+            mMediaController.show(0);
             mMediaController.hideLoading();
         }
 
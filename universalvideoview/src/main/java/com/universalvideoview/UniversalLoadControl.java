@@ -0,0 +1,207 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.util.Util;
+
+/**
+ * {@link LoadControl} of pooled players. Delegates to a {@link DefaultLoadControl} and adds
+ * limits that can be changed while the player is in use.
+ * <p>
+ * While a playing player's buffer is below the {@link LoadScheduler} refill threshold it holds
+ * {@link LoadScheduler#PRIORITY_PLAYBACK}, which holds back background prefetches until the
+ * buffer is refilled. Paused and preloading players never preempt other loads.
+ * <p>
+ * The setters are called from the main thread, the {@link LoadControl} methods from the
+ * playback thread.
+ */
+public class UniversalLoadControl implements LoadControl {
+
+    private final DefaultLoadControl mDelegate;
+    private final long mConfigMaxBufferUs;
+    private volatile long mPreloadTargetUs = C.TIME_UNSET;
+    private volatile long mMaxBufferUs = C.TIME_UNSET;
+    private volatile boolean mPlayWhenReady;
+    private volatile long mBufferedDurationUs;
+    private volatile int mTargetBufferBytes;
+    private boolean mRefilling;
+
+    /**
+     * For a delegate built with {@link DefaultLoadControl#DEFAULT_MAX_BUFFER_MS}.
+     */
+    public UniversalLoadControl(DefaultLoadControl delegate) {
+        this(delegate, DefaultLoadControl.DEFAULT_MAX_BUFFER_MS);
+    }
+
+    /**
+     * @param maxBufferMs the maximum buffer the delegate was built with.
+     */
+    public UniversalLoadControl(DefaultLoadControl delegate, long maxBufferMs) {
+        mDelegate = delegate;
+        mConfigMaxBufferUs = C.msToUs(maxBufferMs);
+    }
+
+    /**
+     * Stops loading once {@code targetMs} of media is buffered, so a paused player can be
+     * warmed up without downloading the whole clip. {@link C#TIME_UNSET} removes the limit.
+     */
+    public void setPreloadTargetMs(long targetMs) {
+        mPreloadTargetUs = targetMs == C.TIME_UNSET ? C.TIME_UNSET : C.msToUs(targetMs);
+    }
+
+    /**
+     * Stops loading once {@code maxBufferMs} of media is buffered, below the configured maximum,
+     * e.g. to keep less unwatched media on metered networks. {@link C#TIME_UNSET} removes the
+     * limit.
+     */
+    public void setMaxBufferMs(long maxBufferMs) {
+        mMaxBufferUs = maxBufferMs == C.TIME_UNSET ? C.TIME_UNSET : C.msToUs(maxBufferMs);
+    }
+
+    /**
+     * Follows the player's play-when-ready state, only a player that is meant to be playing
+     * preempts background loads.
+     */
+    void setPlayWhenReady(boolean playWhenReady) {
+        mPlayWhenReady = playWhenReady;
+        if (!playWhenReady) {
+            setRefilling(false);
+        }
+    }
+
+    /**
+     * Restores the defaults before the player goes back to the pool.
+     */
+    void reset() {
+        mPreloadTargetUs = C.TIME_UNSET;
+        mMaxBufferUs = C.TIME_UNSET;
+        mPlayWhenReady = false;
+        mBufferedDurationUs = 0;
+        setRefilling(false);
+    }
+
+    /**
+     * @return the media duration buffered ahead of the playback position, as of the last
+     * loading decision.
+     */
+    long getBufferedDurationUs() {
+        return mBufferedDurationUs;
+    }
+
+    /**
+     * @return the most media the player buffers ahead of the playback position right now: the
+     * configured maximum, lowered by {@link #setMaxBufferMs(long)} and, while preloading, by
+     * {@link #setPreloadTargetMs(long)}. Loads outside the player should stay within it too.
+     */
+    long getMaxBufferUs() {
+        long maxBufferUs = mConfigMaxBufferUs;
+        long limitUs = mMaxBufferUs;
+        if (limitUs != C.TIME_UNSET) {
+            maxBufferUs = Math.min(maxBufferUs, limitUs);
+        }
+        limitUs = mPreloadTargetUs;
+        if (limitUs != C.TIME_UNSET) {
+            maxBufferUs = Math.min(maxBufferUs, limitUs);
+        }
+        return maxBufferUs;
+    }
+
+    /**
+     * @return the bytes the player may still buffer in memory before it reaches its target
+     * buffer size. Loads outside the player, like HLS segment prefetches, are charged to this.
+     */
+    long getRemainingBufferBytes() {
+        return mTargetBufferBytes - mDelegate.getAllocator().getTotalBytesAllocated();
+    }
+
+    @Override
+    public void onPrepared() {
+        mDelegate.onPrepared();
+    }
+
+    @Override
+    public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups,
+                                 TrackSelectionArray trackSelections) {
+        mDelegate.onTracksSelected(renderers, trackGroups, trackSelections);
+        // the same target as the delegate's
+        int targetBufferBytes = 0;
+        for (int i = 0; i < renderers.length; i++) {
+            if (trackSelections.get(i) != null) {
+                targetBufferBytes += Util.getDefaultBufferSize(renderers[i].getTrackType());
+            }
+        }
+        mTargetBufferBytes = targetBufferBytes;
+    }
+
+    @Override
+    public void onStopped() {
+        mBufferedDurationUs = 0;
+        setRefilling(false);
+        mDelegate.onStopped();
+    }
+
+    @Override
+    public void onReleased() {
+        setRefilling(false);
+        mDelegate.onReleased();
+    }
+
+    @Override
+    public Allocator getAllocator() {
+        return mDelegate.getAllocator();
+    }
+
+    @Override
+    public boolean shouldStartPlayback(long bufferedDurationUs, boolean rebuffering) {
+        return mDelegate.shouldStartPlayback(bufferedDurationUs, rebuffering);
+    }
+
+    @Override
+    public boolean shouldContinueLoading(long bufferedDurationUs) {
+        mBufferedDurationUs = bufferedDurationUs;
+        long preloadTargetUs = mPreloadTargetUs;
+        if (preloadTargetUs != C.TIME_UNSET) {
+            setRefilling(false);
+            return bufferedDurationUs < preloadTargetUs && mDelegate.shouldContinueLoading(bufferedDurationUs);
+        }
+        long maxBufferUs = mMaxBufferUs;
+        boolean continueLoading = mDelegate.shouldContinueLoading(bufferedDurationUs)
+                && (maxBufferUs == C.TIME_UNSET || bufferedDurationUs < maxBufferUs);
+        setRefilling(continueLoading && mPlayWhenReady
+                && bufferedDurationUs < LoadScheduler.getInstance().getRefillThresholdUs());
+        return continueLoading;
+    }
+
+    private synchronized void setRefilling(boolean refilling) {
+        if (refilling == mRefilling) {
+            return;
+        }
+        mRefilling = refilling;
+        if (refilling) {
+            LoadScheduler.getInstance().add(LoadScheduler.PRIORITY_PLAYBACK);
+        } else {
+            LoadScheduler.getInstance().remove(LoadScheduler.PRIORITY_PLAYBACK);
+        }
+    }
+}
@@ -48,6 +48,7 @@ public class UniversalVideoView extends SurfaceView
     private String TAG = "UniversalVideoView";
     // settable by the client
     private Uri mUri;
+    private Map<String, String> mHeaders;
 
     // all possible internal states
     private static final int STATE_ERROR              = -1;
@@ -88,6 +89,12 @@ public class UniversalVideoView extends SurfaceView
     private Context mContext;
     private boolean     mFitXY = false;
     private boolean     mAutoRotation = false;
+    private boolean     mReuseMediaPlayer = false;
+    private long        mKeepAliveTimeoutMs = 0;
+    private boolean     mCacheEnabled = false;
+    private boolean     mKeptAlive;
+    private boolean     mResumeOnReattach;
+    private final Handler mHandler = new Handler();
     private int  mVideoViewLayoutWidth = 0;
     private int  mVideoViewLayoutHeight = 0;
 
@@ -108,7 +115,12 @@ public class UniversalVideoView extends SurfaceView
         TypedArray a = mContext.obtainStyledAttributes(attrs, R.styleable.UniversalVideoView,0,0);
         mFitXY = a.getBoolean(R.styleable.UniversalVideoView_uvv_fitXY, false);
         mAutoRotation = a.getBoolean(R.styleable.UniversalVideoView_uvv_autoRotation, false);
+        mCacheEnabled = a.getBoolean(R.styleable.UniversalVideoView_uvv_cacheEnabled, false);
+        int cacheMaxSizeMb = a.getInt(R.styleable.UniversalVideoView_uvv_cacheMaxSize, 0);
         a.recycle();
+        if (cacheMaxSizeMb > 0) {
+            MediaCache.getInstance(mContext).setMaxBytes(cacheMaxSizeMb * 1024L * 1024L);
+        }
         initVideoView();
     }
 
@@ -246,6 +258,24 @@ public class UniversalVideoView extends SurfaceView
         mAutoRotation = auto;
     }
 
+    /**
+     * Plays remote URIs through {@link CacheProxyServer}, a loopback proxy backed by the same
+     * {@link MediaCache} as {@link UniversalExoPlayer}. Also settable with the
+     * {@code uvv_cacheEnabled} attribute. Takes effect on the next {@link #setVideoURI(Uri)}.
+     */
+    public void setCacheEnabled(boolean enabled) {
+        mCacheEnabled = enabled;
+    }
+
+    /**
+     * When enabled, switching to another URI calls {@link MediaPlayer#reset()} on the current
+     * player instead of releasing it and creating a new one. Creating the native player is the
+     * most expensive part of switching clips on low-end devices.
+     */
+    public void setReuseMediaPlayer(boolean reuse) {
+        mReuseMediaPlayer = reuse;
+    }
+
     /**
      * Sets video path.
      *
@@ -275,7 +305,12 @@ public class UniversalVideoView extends SurfaceView
      *                to disallow or allow cross domain redirection.
      */
     public void setVideoURI(Uri uri, Map<String, String> headers) {
+        if (mKeptAlive) {
+            // the kept player belongs to the previous clip
+            release(false);
+        }
         mUri = uri;
+        mHeaders = headers;
         mSeekWhenPrepared = 0;
         openVideo();
         requestLayout();
@@ -284,6 +319,8 @@ public class UniversalVideoView extends SurfaceView
 
 
     public void stopPlayback() {
+        mKeptAlive = false;
+        mHandler.removeCallbacks(mKeepAliveTimeoutRunnable);
         if (mMediaPlayer != null) {
             mMediaPlayer.stop();
             mMediaPlayer.release();
@@ -303,23 +340,33 @@ public class UniversalVideoView extends SurfaceView
 
         // we shouldn't clear the target state, because somebody might have
         // called start() previously
-        release(false);
+        if (mReuseMediaPlayer && mMediaPlayer != null) {
+            // reset() keeps the native player, its listeners and audio session
+            mMediaPlayer.reset();
+            mCurrentState = STATE_IDLE;
+        } else {
+            release(false);
+        }
         try {
-            mMediaPlayer = new MediaPlayer();
+            if (mMediaPlayer == null) {
+                mMediaPlayer = new MediaPlayer();
 
-            if (mAudioSession != 0) {
-                mMediaPlayer.setAudioSessionId(mAudioSession);
-            } else {
-                mAudioSession = mMediaPlayer.getAudioSessionId();
+                if (mAudioSession != 0) {
+                    mMediaPlayer.setAudioSessionId(mAudioSession);
+                } else {
+                    mAudioSession = mMediaPlayer.getAudioSessionId();
+                }
+                mMediaPlayer.setOnPreparedListener(mPreparedListener);
+                mMediaPlayer.setOnVideoSizeChangedListener(mSizeChangedListener);
+                mMediaPlayer.setOnCompletionListener(mCompletionListener);
+                mMediaPlayer.setOnErrorListener(mErrorListener);
+                mMediaPlayer.setOnInfoListener(mInfoListener);
+                mMediaPlayer.setOnBufferingUpdateListener(mBufferingUpdateListener);
             }
-            mMediaPlayer.setOnPreparedListener(mPreparedListener);
-            mMediaPlayer.setOnVideoSizeChangedListener(mSizeChangedListener);
-            mMediaPlayer.setOnCompletionListener(mCompletionListener);
-            mMediaPlayer.setOnErrorListener(mErrorListener);
-            mMediaPlayer.setOnInfoListener(mInfoListener);
-            mMediaPlayer.setOnBufferingUpdateListener(mBufferingUpdateListener);
             mCurrentBufferPercentage = 0;
-            mMediaPlayer.setDataSource(mContext, mUri);
+            Uri uri = mCacheEnabled ? CacheProxyServer.getInstance(mContext).getProxyUri(mUri) : mUri;
+            mMediaPlayer.setDataSource(mContext, uri, mHeaders);
+            // set again even when reusing, reset() drops the native window on some releases
             mMediaPlayer.setDisplay(mSurfaceHolder);
             mMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
             mMediaPlayer.setScreenOnWhilePlaying(true);
@@ -597,7 +644,11 @@ public class UniversalVideoView extends SurfaceView
         public void surfaceCreated(SurfaceHolder holder)
         {
             mSurfaceHolder = holder;
-            openVideo();
+            if (mKeptAlive && mMediaPlayer != null) {
+                reattach();
+            } else {
+                openVideo();
+            }
             enableOrientationDetect();
         }
 
@@ -606,11 +657,57 @@ public class UniversalVideoView extends SurfaceView
             // after we return from this we can't use the surface any more
             mSurfaceHolder = null;
             if (mMediaController != null) mMediaController.hide();
-            release(true);
+            if (mKeepAliveTimeoutMs > 0 && mMediaPlayer != null && mCurrentState != STATE_ERROR) {
+                keepAlive();
+            } else {
+                release(true);
+            }
             disableOrientationDetect();
         }
     };
 
+    /**
+     * Keeps the player, its buffer and position while the surface is gone, e.g. when the app
+     * goes to background or a dialog covers the view. The player is released if no new surface
+     * shows up within {@code timeoutMs}. 0 disables keep-alive, which is the default.
+     */
+    public void setKeepAliveTimeoutMs(long timeoutMs) {
+        mKeepAliveTimeoutMs = timeoutMs;
+    }
+
+    private void keepAlive() {
+        mResumeOnReattach = mTargetState == STATE_PLAYING;
+        if (isInPlaybackState() && mMediaPlayer.isPlaying()) {
+            mMediaPlayer.pause();
+            mCurrentState = STATE_PAUSED;
+        }
+        // don't let onPrepared() start playback without a surface
+        mTargetState = STATE_PAUSED;
+        mMediaPlayer.setDisplay(null);
+        mKeptAlive = true;
+        mHandler.removeCallbacks(mKeepAliveTimeoutRunnable);
+        mHandler.postDelayed(mKeepAliveTimeoutRunnable, mKeepAliveTimeoutMs);
+    }
+
+    private void reattach() {
+        mKeptAlive = false;
+        mHandler.removeCallbacks(mKeepAliveTimeoutRunnable);
+        mMediaPlayer.setDisplay(mSurfaceHolder);
+        if (mResumeOnReattach) {
+            start();
+        }
+    }
+
+    private final Runnable mKeepAliveTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mKeptAlive) {
+                Log.d(TAG, "keep-alive timed out, releasing player");
+                release(true);
+            }
+        }
+    };
+
     private void enableOrientationDetect() {
         if (mAutoRotation && mOrientationDetector == null) {
             mOrientationDetector = new OrientationDetector(mContext);
@@ -629,6 +726,8 @@ public class UniversalVideoView extends SurfaceView
      * release the media player in any state
      */
     private void release(boolean cleartargetstate) {
+        mKeptAlive = false;
+        mHandler.removeCallbacks(mKeepAliveTimeoutRunnable);
         if (mMediaPlayer != null) {
             mMediaPlayer.reset();
             mMediaPlayer.release();
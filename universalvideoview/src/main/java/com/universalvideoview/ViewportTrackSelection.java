@@ -0,0 +1,173 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.trackselection.BaseTrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+
+/**
+ * Wraps an adaptive {@link TrackSelection} and keeps it to tracks no larger than the view they
+ * play in and, with {@link DataSaver} active, no higher than a bitrate cap. The cap is applied
+ * to the choice of the wrapped selection on every update rather than through the track selector
+ * parameters, so the set of selected tracks stays the same and a change of the cap neither
+ * resets the sample streams nor drops what is already buffered; it applies from the next chunk
+ * loaded.
+ */
+class ViewportTrackSelection extends BaseTrackSelection {
+
+    private static final String TAG = "ViewportTrackSelection";
+
+    /**
+     * Creates the capped selections of a player and holds its current cap.
+     */
+    static final class Factory implements TrackSelection.Factory {
+
+        private final TrackSelection.Factory mDelegate;
+        private volatile int mMaxWidth = Integer.MAX_VALUE;
+        private volatile int mMaxHeight = Integer.MAX_VALUE;
+        private volatile int mMaxBitrate = Integer.MAX_VALUE;
+
+        Factory(TrackSelection.Factory delegate) {
+            mDelegate = delegate;
+        }
+
+        /**
+         * Sets the largest video size worth playing, {@link Integer#MAX_VALUE} for no cap. May be
+         * called from any thread.
+         */
+        void setMaxVideoSize(int maxWidth, int maxHeight) {
+            if (maxWidth != mMaxWidth || maxHeight != mMaxHeight) {
+                mMaxWidth = maxWidth;
+                mMaxHeight = maxHeight;
+                Log.d(TAG, "max video size "
+                        + (maxWidth == Integer.MAX_VALUE ? "unlimited" : maxWidth + "x" + maxHeight));
+            }
+        }
+
+        /**
+         * Sets the highest bitrate worth playing, {@link Integer#MAX_VALUE} for no cap. May be
+         * called from any thread.
+         */
+        void setMaxBitrate(int maxBitrate) {
+            if (maxBitrate != mMaxBitrate) {
+                mMaxBitrate = maxBitrate;
+                Log.d(TAG, "max bitrate " + (maxBitrate == Integer.MAX_VALUE ? "unlimited" : maxBitrate));
+            }
+        }
+
+        @Override
+        public ViewportTrackSelection createTrackSelection(TrackGroup group, int... tracks) {
+            return new ViewportTrackSelection(group, tracks, mDelegate.createTrackSelection(group, tracks), this);
+        }
+    }
+
+    private final TrackSelection mDelegate;
+    private final Factory mFactory;
+    private int mSelectedIndex;
+    private int mReason;
+
+    private ViewportTrackSelection(TrackGroup group, int[] tracks, TrackSelection delegate, Factory factory) {
+        super(group, tracks);
+        mDelegate = delegate;
+        mFactory = factory;
+        mSelectedIndex = capIndex(Long.MIN_VALUE);
+        mReason = delegate.getSelectionReason();
+    }
+
+    @Override
+    public void updateSelectedTrack(long playbackPositionUs, long bufferedDurationUs, long availableDurationUs) {
+        mDelegate.updateSelectedTrack(playbackPositionUs, bufferedDurationUs, availableDurationUs);
+        int index = capIndex(SystemClock.elapsedRealtime());
+        if (index != mSelectedIndex) {
+            mSelectedIndex = index;
+            mReason = mDelegate.getSelectionReason();
+        }
+    }
+
+    @Override
+    public int getSelectedIndex() {
+        return mSelectedIndex;
+    }
+
+    @Override
+    public int getSelectionReason() {
+        return mReason;
+    }
+
+    @Override
+    public Object getSelectionData() {
+        return mDelegate.getSelectionData();
+    }
+
+    /**
+     * @param nowMs {@link Long#MIN_VALUE} to ignore blacklisting.
+     * @return the wrapped choice, or the largest track below it that fits the caps, or the
+     * smallest one below it if none fits. The wrapped selection doesn't see the tracks blacklisted
+     * on this one, so a blacklisted choice is passed over too, and if every track below it is
+     * blacklisted the next one above it is used.
+     */
+    private int capIndex(long nowMs) {
+        int index = indexOf(mDelegate.getSelectedFormat());
+        boolean blacklisted = nowMs != Long.MIN_VALUE && isBlacklisted(index, nowMs);
+        if (!blacklisted && fits(getFormat(index))) {
+            return index;
+        }
+        int smallest = blacklisted ? C.INDEX_UNSET : index;
+        // tracks are ordered by decreasing bitrate
+        for (int i = index + 1; i < length; i++) {
+            if (nowMs != Long.MIN_VALUE && isBlacklisted(i, nowMs)) {
+                continue;
+            }
+            Format format = getFormat(i);
+            if (fits(format)) {
+                return i;
+            }
+            if (smallest == C.INDEX_UNSET || getPixelCount(format) < getPixelCount(getFormat(smallest))) {
+                smallest = i;
+            }
+        }
+        if (smallest != C.INDEX_UNSET) {
+            return smallest;
+        }
+        for (int i = index - 1; i >= 0; i--) {
+            if (!isBlacklisted(i, nowMs)) {
+                return i;
+            }
+        }
+        return index;
+    }
+
+    private boolean fits(Format format) {
+        if (format.bitrate != Format.NO_VALUE && format.bitrate > mFactory.mMaxBitrate) {
+            return false;
+        }
+        // scaled to fit inside the view, a larger video has at least one side beyond the view's
+        return format.width == Format.NO_VALUE || format.height == Format.NO_VALUE
+                || (format.width <= mFactory.mMaxWidth && format.height <= mFactory.mMaxHeight);
+    }
+
+    private static long getPixelCount(Format format) {
+        return format.width == Format.NO_VALUE || format.height == Format.NO_VALUE
+                ? Long.MAX_VALUE : (long) format.width * format.height;
+    }
+}
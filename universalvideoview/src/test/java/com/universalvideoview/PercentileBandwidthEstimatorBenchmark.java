@@ -0,0 +1,72 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Microbenchmark of {@link PercentileBandwidthEstimator#addSample}, run with the unit tests.
+ * It prints the cost per sample for a few window sizes; the assertion only catches a
+ * regression to something far slower than O(capacity).
+ */
+public class PercentileBandwidthEstimatorBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+    private static final int SAMPLES_PER_ROUND = 100000;
+    // generous so a busy build machine doesn't fail it
+    private static final long MAX_NS_PER_SAMPLE = 20000;
+
+    @Test
+    public void addSample() {
+        long[][] trace = PercentileBandwidthEstimatorTest.burstyTrace(new Random(1), 4096);
+        for (int capacity : new int[] {8, PercentileBandwidthEstimator.DEFAULT_CAPACITY, 128}) {
+            PercentileBandwidthEstimator estimator = new PercentileBandwidthEstimator(capacity,
+                    PercentileBandwidthEstimator.DEFAULT_PERCENTILE);
+            long sink = 0;
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                sink += run(estimator, trace);
+            }
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                long start = System.nanoTime();
+                sink += run(estimator, trace);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            double nsPerSample = (double) best / SAMPLES_PER_ROUND;
+            System.out.println(String.format(Locale.US, "capacity %d: %.1f ns per sample (%d)",
+                    capacity, nsPerSample, sink % 10));
+            assertTrue("capacity " + capacity + " took " + nsPerSample + " ns per sample",
+                    nsPerSample < MAX_NS_PER_SAMPLE);
+        }
+    }
+
+    private static long run(PercentileBandwidthEstimator estimator, long[][] trace) {
+        long sum = 0;
+        for (int i = 0; i < SAMPLES_PER_ROUND; i++) {
+            long[] sample = trace[i % trace.length];
+            estimator.addSample(sample[0], sample[1]);
+            sum += estimator.getBitrateEstimate();
+        }
+        return sum;
+    }
+}
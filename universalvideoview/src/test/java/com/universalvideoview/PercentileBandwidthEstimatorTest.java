@@ -0,0 +1,179 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays sample traces through {@link PercentileBandwidthEstimator} and checks the estimate
+ * against a sort-based reference of the same window.
+ */
+public class PercentileBandwidthEstimatorTest {
+
+    @Test
+    public void noEstimateBeforeFirstSample() {
+        PercentileBandwidthEstimator estimator = new PercentileBandwidthEstimator();
+        assertEquals(BandwidthEstimator.NO_ESTIMATE, estimator.getBitrateEstimate());
+        estimator.addSample(0, 100);
+        estimator.addSample(1000, 0);
+        assertEquals(BandwidthEstimator.NO_ESTIMATE, estimator.getBitrateEstimate());
+    }
+
+    @Test
+    public void steadyTraceGivesItsBitrate() {
+        PercentileBandwidthEstimator estimator = new PercentileBandwidthEstimator();
+        // 125000 bytes per 100 ms is 10 Mbps
+        for (int i = 0; i < 100; i++) {
+            estimator.addSample(125000, 100);
+        }
+        assertEquals(10000000, estimator.getBitrateEstimate());
+    }
+
+    @Test
+    public void smallFastBurstsDoNotMoveTheMedian() {
+        PercentileBandwidthEstimator estimator = new PercentileBandwidthEstimator(16, 0.5f);
+        // one large segment at 2 Mbps, then small requests that finish quickly
+        estimator.addSample(1000000, 4000);
+        for (int i = 0; i < 8; i++) {
+            estimator.addSample(2000, 1);
+        }
+        assertEquals(2000000, estimator.getBitrateEstimate());
+    }
+
+    @Test
+    public void oldSamplesLeaveTheWindow() {
+        PercentileBandwidthEstimator estimator = new PercentileBandwidthEstimator(8, 0.5f);
+        for (int i = 0; i < 8; i++) {
+            estimator.addSample(125000, 100);
+        }
+        // the network drops to 1 Mbps, once the window has turned over only that is left
+        for (int i = 0; i < 8; i++) {
+            estimator.addSample(12500, 100);
+        }
+        assertEquals(1000000, estimator.getBitrateEstimate());
+    }
+
+    @Test
+    public void lowerPercentileIsMoreConservative() {
+        PercentileBandwidthEstimator low = new PercentileBandwidthEstimator(32, 0.2f);
+        PercentileBandwidthEstimator high = new PercentileBandwidthEstimator(32, 0.8f);
+        long[][] trace = burstyTrace(new Random(7), 200);
+        for (long[] sample : trace) {
+            low.addSample(sample[0], sample[1]);
+            high.addSample(sample[0], sample[1]);
+        }
+        assertTrue(low.getBitrateEstimate() <= high.getBitrateEstimate());
+    }
+
+    @Test
+    public void replayMatchesReference() {
+        int[] capacities = {1, 2, 5, 32, 100};
+        float[] percentiles = {0f, 0.1f, 0.5f, 0.9f, 1f};
+        Random random = new Random(42);
+        for (int capacity : capacities) {
+            for (float percentile : percentiles) {
+                PercentileBandwidthEstimator estimator =
+                        new PercentileBandwidthEstimator(capacity, percentile);
+                long[][] trace = burstyTrace(random, 500);
+                for (int i = 0; i < trace.length; i++) {
+                    estimator.addSample(trace[i][0], trace[i][1]);
+                    int from = Math.max(0, i + 1 - capacity);
+                    long expected = referenceEstimate(trace, from, i + 1, percentile);
+                    assertEquals("capacity=" + capacity + " percentile=" + percentile
+                            + " sample=" + i, expected, estimator.getBitrateEstimate());
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroCapacity() {
+        new PercentileBandwidthEstimator(0, 0.5f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPercentileAboveOne() {
+        new PercentileBandwidthEstimator(8, 1.5f);
+    }
+
+    /**
+     * A mobile-like trace: mostly segment-sized transfers around a slowly drifting throughput,
+     * mixed with small requests and occasional stalls.
+     */
+    static long[][] burstyTrace(Random random, int length) {
+        long[][] trace = new long[length][];
+        double bitrate = 4000000;
+        for (int i = 0; i < length; i++) {
+            bitrate *= 0.8 + random.nextDouble() * 0.4;
+            bitrate = Math.max(200000, Math.min(20000000, bitrate));
+            long bytes;
+            double rate = bitrate;
+            int kind = random.nextInt(10);
+            if (kind == 0) {
+                // playlist or key request, latency dominated
+                bytes = 500 + random.nextInt(4000);
+                rate = bitrate * (0.2 + random.nextDouble() * 3);
+            } else if (kind == 1) {
+                // stall
+                bytes = 200000 + random.nextInt(800000);
+                rate = bitrate / 10;
+            } else {
+                bytes = 200000 + random.nextInt(1500000);
+            }
+            long elapsedMs = Math.max(1, (long) (bytes * 8000 / rate));
+            trace[i] = new long[] {bytes, elapsedMs};
+        }
+        return trace;
+    }
+
+    /**
+     * Sorts the samples of the window by bitrate and returns the one at the byte-weighted
+     * percentile.
+     */
+    private static long referenceEstimate(long[][] trace, int from, int to, float percentile) {
+        Integer[] indices = new Integer[to - from];
+        final float[] bitrates = new float[trace.length];
+        long totalBytes = 0;
+        for (int i = from; i < to; i++) {
+            indices[i - from] = i;
+            bitrates[i] = trace[i][0] * 8000f / trace[i][1];
+            totalBytes += trace[i][0];
+        }
+        Arrays.sort(indices, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return Float.compare(bitrates[lhs], bitrates[rhs]);
+            }
+        });
+        long target = (long) (totalBytes * percentile);
+        long accumulated = 0;
+        for (Integer index : indices) {
+            accumulated += trace[index][0];
+            if (accumulated >= target) {
+                return (long) bitrates[index];
+            }
+        }
+        return (long) bitrates[indices[indices.length - 1]];
+    }
+}
@@ -0,0 +1,137 @@
+/*
+* Copyright (C) 2015 Author <dictfb#gmail.com>
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.universalvideoview;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.trackselection.BaseTrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.util.MimeTypes;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link ViewportTrackSelection} caps the wrapped choice and moves off tracks
+ * blacklisted on it, which the wrapped selection never sees.
+ */
+public class ViewportTrackSelectionTest {
+
+    private static final long BLACKLIST_MS = 60000;
+
+    private static final TrackGroup GROUP = new TrackGroup(
+            videoFormat("1080p", 3000000, 1920, 1080),
+            videoFormat("720p", 1500000, 1280, 720),
+            videoFormat("360p", 500000, 640, 360));
+
+    @Test
+    public void keepsTheWrappedChoiceWhenItFits() {
+        TrackSelection selection = newSelection(0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        update(selection);
+        assertEquals(0, selection.getSelectedIndex());
+    }
+
+    @Test
+    public void capsToTheViewSize() {
+        TrackSelection selection = newSelection(0, 1280, 720);
+        update(selection);
+        assertEquals(1, selection.getSelectedIndex());
+    }
+
+    @Test
+    public void movesOffABlacklistedChoice() {
+        TrackSelection selection = newSelection(0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        update(selection);
+        assertTrue(selection.blacklist(0, BLACKLIST_MS));
+        update(selection);
+        assertEquals(1, selection.getSelectedIndex());
+    }
+
+    @Test
+    public void skipsBlacklistedTracksBelowTheCap() {
+        TrackSelection selection = newSelection(0, 1280, 720);
+        assertTrue(selection.blacklist(1, BLACKLIST_MS));
+        update(selection);
+        assertEquals(2, selection.getSelectedIndex());
+    }
+
+    @Test
+    public void movesUpWhenEverythingBelowIsBlacklisted() {
+        TrackSelection selection = newSelection(2, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        assertTrue(selection.blacklist(2, BLACKLIST_MS));
+        update(selection);
+        assertEquals(1, selection.getSelectedIndex());
+    }
+
+    private static TrackSelection newSelection(final int wrappedIndex, int maxWidth, int maxHeight) {
+        ViewportTrackSelection.Factory factory = new ViewportTrackSelection.Factory(new TrackSelection.Factory() {
+            @Override
+            public TrackSelection createTrackSelection(TrackGroup group, int... tracks) {
+                return new StuckTrackSelection(group, tracks, wrappedIndex);
+            }
+        });
+        factory.setMaxVideoSize(maxWidth, maxHeight);
+        return factory.createTrackSelection(GROUP, 0, 1, 2);
+    }
+
+    private static void update(TrackSelection selection) {
+        selection.updateSelectedTrack(0, 0, C.TIME_UNSET);
+    }
+
+    private static Format videoFormat(String id, int bitrate, int width, int height) {
+        return Format.createVideoSampleFormat(id, MimeTypes.VIDEO_H264, null, bitrate,
+                Format.NO_VALUE, width, height, Format.NO_VALUE, null, null);
+    }
+
+    /**
+     * Always picks the same track, like an adaptive selection that keeps choosing a variant
+     * whose requests fail.
+     */
+    private static final class StuckTrackSelection extends BaseTrackSelection {
+
+        private final int mIndex;
+
+        StuckTrackSelection(TrackGroup group, int[] tracks, int index) {
+            super(group, tracks);
+            mIndex = index;
+        }
+
+        @Override
+        public void updateSelectedTrack(long playbackPositionUs, long bufferedDurationUs,
+                                        long availableDurationUs) {
+            // do nothing.
+        }
+
+        @Override
+        public int getSelectedIndex() {
+            return mIndex;
+        }
+
+        @Override
+        public int getSelectionReason() {
+            return C.SELECTION_REASON_ADAPTIVE;
+        }
+
+        @Override
+        public Object getSelectionData() {
+            return null;
+        }
+    }
+}